@@ -0,0 +1,180 @@
+/**
+ *  CollectionStats holds the index statistics that retrieval models
+ *  use on their hot paths:  the number of documents, and for each
+ *  field the number of documents that have it, its total length, and
+ *  its average length.  They are read from the index once, when it
+ *  is opened, instead of once per posting.
+ *
+ *  It also caches the df and ctf of recently used terms in a small
+ *  LRU cache, because the same terms recur across the queries of a
+ *  batch.  The object can be shared by several threads.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+
+public class CollectionStats {
+
+  /**
+   *  The default number of terms whose df and ctf are cached.
+   */
+  public static final int DEFAULT_TERM_CACHE_SIZE = 10000;
+
+  //  Per-field statistics.
+
+  private static class FieldStats {
+    int docCount;
+    long sumTotalTermFreq;
+    double avgLength;
+  }
+
+  private IndexReader reader;
+  private int numDocs;
+  private Map<String, FieldStats> fields = new HashMap<String, FieldStats>();
+
+  //  Term -> {df, ctf}, least recently used first.
+
+  private Map<Term, long[]> terms;
+
+  /**
+   *  Read the collection statistics of an index.
+   *  @param reader The index reader.
+   *  @throws IOException
+   */
+  public CollectionStats(IndexReader reader) throws IOException {
+    this (reader, DEFAULT_TERM_CACHE_SIZE);
+  }
+
+  /**
+   *  Read the collection statistics of an index.
+   *  @param reader The index reader.
+   *  @param termCacheSize The number of terms whose df and ctf are cached.
+   *  @throws IOException
+   */
+  public CollectionStats(IndexReader reader, final int termCacheSize)
+    throws IOException {
+
+    this.reader = reader;
+    this.numDocs = reader.numDocs();
+
+    //  The composite reader sums the statistics of its segments, so
+    //  only the field names are read from each segment here.
+
+    for (AtomicReaderContext leaf : reader.leaves())
+      for (FieldInfo info : leaf.reader().getFieldInfos())
+	if (info.isIndexed() && ! this.fields.containsKey (info.name))
+	  this.fields.put (info.name, readFieldStats (info.name));
+
+    this.terms = new LinkedHashMap<Term, long[]>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Term, long[]> eldest) {
+	return size() > termCacheSize;
+      }
+    };
+  }
+
+  /**
+   *  Get the number of (live) documents in the index.
+   *  @return The number of documents.
+   */
+  public int numDocs() {
+    return this.numDocs;
+  }
+
+  /**
+   *  Get the number of documents that have a field.
+   *  @param field The field name.
+   *  @return The number of documents.
+   *  @throws IOException
+   */
+  public int docCount(String field) throws IOException {
+    return fieldStats(field).docCount;
+  }
+
+  /**
+   *  Get the total number of term occurrences in a field.
+   *  @param field The field name.
+   *  @return The total length of the field over all documents.
+   *  @throws IOException
+   */
+  public long sumTotalTermFreq(String field) throws IOException {
+    return fieldStats(field).sumTotalTermFreq;
+  }
+
+  /**
+   *  Get the average length of a field, over the documents that have it.
+   *  @param field The field name.
+   *  @return The average field length.
+   *  @throws IOException
+   */
+  public double avgLength(String field) throws IOException {
+    return fieldStats(field).avgLength;
+  }
+
+  /**
+   *  Get the number of documents that contain a term.
+   *  @param term The term.
+   *  @return The document frequency.
+   *  @throws IOException
+   */
+  public int docFreq(Term term) throws IOException {
+    return (int) termStats(term)[0];
+  }
+
+  /**
+   *  Get the number of occurrences of a term in the collection.
+   *  @param term The term.
+   *  @return The collection term frequency.
+   *  @throws IOException
+   */
+  public long totalTermFreq(Term term) throws IOException {
+    return termStats(term)[1];
+  }
+
+  //  The statistics of a field.  Fields that are not indexed are not in
+  //  the map; they are read each time, which only happens for queries
+  //  on fields that do not exist.
+
+  private FieldStats fieldStats(String field) throws IOException {
+
+    FieldStats stats = this.fields.get(field);
+
+    return (stats != null) ? stats : readFieldStats (field);
+  }
+
+  private FieldStats readFieldStats(String field) throws IOException {
+
+    FieldStats stats = new FieldStats();
+
+    stats.docCount = this.reader.getDocCount(field);
+    stats.sumTotalTermFreq = this.reader.getSumTotalTermFreq(field);
+    stats.avgLength = stats.sumTotalTermFreq / (float) stats.docCount;
+
+    return stats;
+  }
+
+  private long[] termStats(Term term) throws IOException {
+
+    synchronized (this.terms) {
+      long[] stats = this.terms.get(term);
+
+      if (stats != null)
+	return stats;
+    }
+
+    //  Read the statistics outside the lock.  Two threads may read the
+    //  same term at once; they get the same answer.
+
+    long[] stats = { this.reader.docFreq(term),
+		     this.reader.totalTermFreq(term) };
+
+    synchronized (this.terms) {
+      this.terms.put (term, stats);
+    }
+
+    return stats;
+  }
+}
@@ -2,30 +2,151 @@
  *  Copyright (c) 2013, Carnegie Mellon University.  All Rights Reserved.
  */
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.NumericDocValues;
-import org.apache.lucene.index.MultiDocValues;
-import org.apache.lucene.index.MultiFields;
 
 /**
  * DocLengthStore is used to access the document lengths of indexed docs.
+ *
+ * The lengths of a field are decoded from the index norms the first time
+ * the field is used, into a dense array indexed by docid.  Callers that
+ * look up many lengths of one field should get the field's
+ * {@link FieldLengths} handle once, so that each lookup is one array
+ * access.  For collections whose lengths do not fit comfortably on the
+ * heap, the arrays can instead be written to files and memory-mapped.
+ *
+ * The norms are read from each index segment, and the length of a
+ * segment's document d is stored at docBase + d.
+ *
+ * A mapped file starts with a header that identifies the index it was
+ * written for (see {@link IndexFingerprint}); a file whose header does
+ * not match the open index is rewritten.  Files are written under a
+ * temporary name and renamed into place once complete, so a crash
+ * never leaves a partial file behind that would later be trusted.
+ * The lengths are written straight from the norms into the file, and
+ * the file is mapped in chunks of CHUNK_INTS lengths, so neither
+ * writing nor reading it is limited to 2 GB.
  */
 public class DocLengthStore  {
 
+  // The header of a mapped file:  magic, maxDoc and the index
+  // fingerprint.
+
+  private static final int MAGIC = 0x444c454e;
+  private static final int HEADER_BYTES = 16;
+
+  // A mapped file is mapped in chunks of this many lengths (1 GB).
+
+  private static final int CHUNK_SHIFT = 28;
+  private static final int CHUNK_INTS = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_INTS - 1;
+
+  /**
+   * The lengths of one field, indexed by internal docid.
+   */
+  public static final class FieldLengths {
+
+    private final int[] lengths;
+    private final IntBuffer[] mapped;
+    private final int size;
+
+    private long loadMillis;
+
+    private FieldLengths(int[] lengths) {
+      this.lengths = lengths;
+      this.mapped = null;
+      this.size = lengths.length;
+    }
+
+    private FieldLengths(IntBuffer[] mapped, int size) {
+      this.lengths = null;
+      this.mapped = mapped;
+      this.size = size;
+    }
+
+    /**
+     * Returns the length of the field in the specified document.
+     *
+     * @param docid The internal docid in the lucene index.
+     */
+    public int get(int docid) {
+      return (lengths != null) ? lengths[docid]
+          : mapped[docid >>> CHUNK_SHIFT].get(docid & CHUNK_MASK);
+    }
+
+    /**
+     * Returns the number of documents.
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Returns true if the lengths are memory-mapped rather than on the heap.
+     */
+    public boolean isMapped() {
+      return lengths == null;
+    }
+  }
+
   private IndexReader reader;
-  private  Map<String, NumericDocValues> values = new HashMap<String, NumericDocValues>();
+  private File mmapDir;
+  private  Map<String, FieldLengths> fields = new ConcurrentHashMap<String, FieldLengths>();
+  private  Map<String, Long> minLengths = new HashMap<String, Long>();
 
   /**
    * @param reader IndexReader object created in {@link QryEval}.
    */
   public DocLengthStore(IndexReader reader) throws IOException {
+    this(reader, null);
+  }
+
+  /**
+   * @param reader IndexReader object created in {@link QryEval}.
+   * @param mmapDir If not null, keep the lengths of each field in a file
+   * in this directory and memory-map it instead of using the heap.  The
+   * files are rewritten if they were written for another index.
+   */
+  public DocLengthStore(IndexReader reader, File mmapDir) throws IOException {
     this.reader = reader;
-    for (String field : MultiFields.getIndexedFields(reader)) {
-      this.values.put(field, MultiDocValues.getNormValues(reader, field));      
+    this.mmapDir = mmapDir;
+  }
+
+  /**
+   * Returns the lengths of the specified field, loading them if this is
+   * the first time the field is used.  A field without lengths in the
+   * index has length 0 in every document.
+   *
+   * @param fieldname Name of field to access lengths.
+   */
+  public FieldLengths field(String fieldname) throws IOException {
+    FieldLengths lengths = fields.get(fieldname);
+    return (lengths != null) ? lengths : load(fieldname);
+  }
+
+  private synchronized FieldLengths load(String fieldname) throws IOException {
+    FieldLengths lengths = fields.get(fieldname);
+    if (lengths == null) {
+      long start = System.currentTimeMillis();
+      lengths = (mmapDir == null) ? loadArray(fieldname) : loadMapped(fieldname);
+      lengths.loadMillis = System.currentTimeMillis() - start;
+      fields.put(fieldname, lengths);
     }
+    return lengths;
   }
 
   /**
@@ -36,6 +157,166 @@ public class DocLengthStore  {
    * @param docid The internal docid in the lucene index.
    */
   public long getDocLength(String fieldname, int docid) throws IOException {
-    return values.get(fieldname).get(docid);
+    return field(fieldname).get(docid);
+  }
+
+  /**
+   * Returns the smallest length of the specified field over all documents.
+   * It is computed the first time a field is asked for.  Upper bounds on
+   * length-normalized scores (e.g., BM25) use it.
+   *
+   * @param fieldname Name of field to access lengths.
+   */
+  public synchronized long getMinDocLength(String fieldname) throws IOException {
+    Long min = minLengths.get(fieldname);
+    if (min == null) {
+      FieldLengths lengths = field(fieldname);
+      long m = Long.MAX_VALUE;
+      for (int docid = 0; docid < lengths.size(); docid++) {
+        m = Math.min(m, lengths.get(docid));
+      }
+      min = (m == Long.MAX_VALUE) ? 0 : m;
+      minLengths.put(fieldname, min);
+    }
+    return min;
+  }
+
+  /**
+   * Returns one line per loaded field with its size, where it is kept,
+   * and how long it took to load, to help size the heap.
+   */
+  public synchronized String memoryReport() {
+    StringBuilder report = new StringBuilder();
+    for (Map.Entry<String, FieldLengths> entry : fields.entrySet()) {
+      FieldLengths lengths = entry.getValue();
+      report.append("Doc lengths of " + entry.getKey() + ":  "
+          + lengths.size() + " docs, "
+          + ((4L * lengths.size()) / 1024L) + " KB "
+          + (lengths.isMapped() ? "mapped" : "on heap") + ", loaded in "
+          + lengths.loadMillis + " ms\n");
+    }
+    return report.toString();
+  }
+
+  private int[] decode(String fieldname) throws IOException {
+    int[] lengths = new int[reader.maxDoc()];
+    for (AtomicReaderContext leaf : reader.leaves()) {
+      NumericDocValues norms = leaf.reader().getNormValues(fieldname);
+      if (norms != null) {
+        int maxDoc = leaf.reader().maxDoc();
+        for (int d = 0; d < maxDoc; d++) {
+          lengths[leaf.docBase + d] = (int) norms.get(d);
+        }
+      }
+    }
+    return lengths;
+  }
+
+  private FieldLengths loadArray(String fieldname) throws IOException {
+    return new FieldLengths(decode(fieldname));
+  }
+
+  private FieldLengths loadMapped(String fieldname) throws IOException {
+    File file = new File(mmapDir, fieldname + ".len");
+    long fingerprint = IndexFingerprint.of(reader);
+    long bytes = HEADER_BYTES + 4L * reader.maxDoc();
+    if (!matches(file, bytes, fingerprint)) {
+      write(file, fieldname, bytes, fingerprint);
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return new FieldLengths(ints(map(raf.getChannel(), FileChannel.MapMode.READ_ONLY)),
+          reader.maxDoc());
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Maps the lengths of a file, one buffer per chunk.
+   */
+  private MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode)
+      throws IOException {
+    int maxDoc = reader.maxDoc();
+    MappedByteBuffer[] chunks = new MappedByteBuffer[(maxDoc + CHUNK_MASK) >>> CHUNK_SHIFT];
+    for (int c = 0; c < chunks.length; c++) {
+      long from = (long) c << CHUNK_SHIFT;
+      long n = Math.min(CHUNK_INTS, maxDoc - from);
+      chunks[c] = channel.map(mode, HEADER_BYTES + 4L * from, 4L * n);
+      chunks[c].order(ByteOrder.nativeOrder());
+    }
+    return chunks;
+  }
+
+  private static IntBuffer[] ints(MappedByteBuffer[] chunks) {
+    IntBuffer[] ints = new IntBuffer[chunks.length];
+    for (int c = 0; c < chunks.length; c++) {
+      ints[c] = chunks[c].asIntBuffer();
+    }
+    return ints;
+  }
+
+  /**
+   * Returns true if a mapped file exists and was written for this index.
+   */
+  private boolean matches(File file, long bytes, long fingerprint)
+      throws IOException {
+    if (!file.isFile() || file.length() != bytes) {
+      return false;
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      raf.getChannel().read(header, 0);
+      header.flip();
+      return header.remaining() == HEADER_BYTES
+          && header.getInt() == MAGIC
+          && header.getInt() == reader.maxDoc()
+          && header.getLong() == fingerprint;
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Writes the mapped file of a field under a temporary name, then
+   * renames it into place.  Each segment's norms are copied straight
+   * into the mapped chunks; the lengths of documents without norms stay
+   * 0, as the file is created zero-filled.
+   */
+  private void write(File file, String fieldname, long bytes,
+      long fingerprint) throws IOException {
+    File tmp = File.createTempFile(fieldname, ".tmp", mmapDir);
+    try {
+      RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+      try {
+        raf.setLength(bytes);
+        raf.writeInt(MAGIC);
+        raf.writeInt(reader.maxDoc());
+        raf.writeLong(fingerprint);
+        MappedByteBuffer[] out = map(raf.getChannel(), FileChannel.MapMode.READ_WRITE);
+        IntBuffer[] chunks = ints(out);
+        for (AtomicReaderContext leaf : reader.leaves()) {
+          NumericDocValues norms = leaf.reader().getNormValues(fieldname);
+          if (norms != null) {
+            int maxDoc = leaf.reader().maxDoc();
+            for (int d = 0; d < maxDoc; d++) {
+              int docid = leaf.docBase + d;
+              chunks[docid >>> CHUNK_SHIFT].put(docid & CHUNK_MASK, (int) norms.get(d));
+            }
+          }
+        }
+        for (MappedByteBuffer chunk : out) {
+          chunk.force();
+        }
+        raf.getChannel().force(false);
+      } finally {
+        raf.close();
+      }
+      Files.move(tmp.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tmp.delete();
+    }
   }
 }
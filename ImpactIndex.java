@@ -0,0 +1,265 @@
+/**
+ *  ImpactIndex reads an impact-ordered index written by
+ *  ImpactIndexBuilder.  For every <term, field> of the Lucene index it
+ *  holds the term's postings grouped into segments of equal impact,
+ *  highest impact first, with the docids of a segment in increasing
+ *  order.  A posting's impact is its BM25 score (idf times the tf
+ *  weight, for the k1 and b the index was built with), quantized to a
+ *  small integer; impact * scale () approximates the score.
+ *
+ *  The file has a header, the term dictionary, the segment table and
+ *  the postings:
+ *
+ *    header:      int magic, int version, double k1, double b,
+ *                 int bits, double scale, int maxDoc, long fingerprint,
+ *                 int numTerms, int numSegments, long numPostings
+ *    dictionary:  numTerms times:  field, term (each an unsigned short
+ *                 length and UTF-8 bytes), int df, int firstSegment,
+ *                 int segmentCount
+ *    segments:    numSegments times:  int impact, int start, int length
+ *    postings:    padding to a multiple of 4 bytes, then numPostings
+ *                 int docids
+ *
+ *  The fingerprint identifies the version of the Lucene index the
+ *  impacts were computed from (see IndexFingerprint), so that an impact
+ *  index is not used after documents are deleted or the index is
+ *  rebuilt.  All numbers are big-endian.  The dictionary and the segment table
+ *  are read into memory; the postings are memory-mapped, so the file
+ *  may be at most 2 GB.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+
+public class ImpactIndex {
+
+  /**
+   *  The first int of an impact index file.
+   */
+  public static final int MAGIC = 0x494d5058;
+
+  /**
+   *  The version of the file format.
+   */
+  public static final int VERSION = 2;
+
+  /**
+   *  The length of the header, in bytes.
+   */
+  static final int HEADER_BYTES = 64;
+
+  /**
+   *  The largest file that can be read.  The whole file is mapped as
+   *  one buffer.
+   */
+  public static final long MAX_BYTES = Integer.MAX_VALUE;
+
+  /**
+   *  The segments of one term.
+   */
+  public static class TermSegments {
+
+    /**
+     *  The number of documents that contain the term.
+     */
+    public final int df;
+
+    /**
+     *  The index of the term's first (highest impact) segment.
+     */
+    public final int first;
+
+    /**
+     *  The number of the term's segments.
+     */
+    public final int count;
+
+    TermSegments (int df, int first, int count) {
+      this.df = df;
+      this.first = first;
+      this.count = count;
+    }
+  }
+
+  private double k1;
+  private double b;
+  private int bits;
+  private double scale;
+  private int maxDoc;
+  private long fingerprint;
+
+  private Map<Term, TermSegments> terms;
+
+  private int[] segmentImpacts;
+  private int[] segmentStarts;
+  private int[] segmentLengths;
+
+  private IntBuffer postings;
+
+  /**
+   *  Open an impact index.
+   *  @param file The file written by ImpactIndexBuilder.
+   *  @throws IOException
+   */
+  public ImpactIndex(File file) throws IOException {
+
+    RandomAccessFile raf = new RandomAccessFile (file, "r");
+
+    try {
+      FileChannel channel = raf.getChannel ();
+
+      if (channel.size () > MAX_BYTES)
+	throw new IOException ("Impact index " + file +
+			       " is larger than 2 GB");
+
+      ByteBuffer buffer =
+	channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ());
+
+      if (buffer.getInt () != MAGIC)
+	throw new IOException (file + " is not an impact index");
+
+      if (buffer.getInt () != VERSION)
+	throw new IOException (file + " was written by another version of " +
+			       "ImpactIndexBuilder; rebuild it");
+
+      this.k1 = buffer.getDouble ();
+      this.b = buffer.getDouble ();
+      this.bits = buffer.getInt ();
+      this.scale = buffer.getDouble ();
+      this.maxDoc = buffer.getInt ();
+      this.fingerprint = buffer.getLong ();
+
+      int numTerms = buffer.getInt ();
+      int numSegments = buffer.getInt ();
+      long numPostings = buffer.getLong ();
+
+      this.terms = new HashMap<Term, TermSegments>(2 * numTerms);
+
+      for (int t = 0; t < numTerms; t++) {
+	String field = readString (buffer);
+	String text = readString (buffer);
+
+	this.terms.put (new Term (field, text),
+			new TermSegments (buffer.getInt (), buffer.getInt (),
+					  buffer.getInt ()));
+      }
+
+      this.segmentImpacts = new int[numSegments];
+      this.segmentStarts = new int[numSegments];
+      this.segmentLengths = new int[numSegments];
+
+      for (int s = 0; s < numSegments; s++) {
+	this.segmentImpacts[s] = buffer.getInt ();
+	this.segmentStarts[s] = buffer.getInt ();
+	this.segmentLengths[s] = buffer.getInt ();
+      }
+
+      buffer.position ((buffer.position () + 3) & ~3);
+      buffer.limit (buffer.position () + (int) (4 * numPostings));
+      this.postings = buffer.slice ().asIntBuffer ();
+    } finally {
+      raf.close ();
+    }
+  }
+
+  //  A string is an unsigned short length and that many UTF-8 bytes.
+
+  private static String readString (ByteBuffer buffer) throws IOException {
+
+    byte[] bytes = new byte[buffer.getShort () & 0xffff];
+
+    buffer.get (bytes);
+    return new String (bytes, "UTF-8");
+  }
+
+  /**
+   *  Whether the impacts were computed with a retrieval model's k1 and b.
+   *  @param rm The BM25 retrieval model.
+   *  @return True if they were.
+   */
+  public boolean matches(RetrievalModelBM25 rm) {
+    return rm.k1 == this.k1 && rm.b == this.b;
+  }
+
+  /**
+   *  Get a description of the parameters the index was built with.
+   *  @return The description.
+   */
+  public String toString() {
+    return "ImpactIndex(k1=" + this.k1 + ", b=" + this.b + ", bits=" +
+      this.bits + ", " + this.terms.size () + " terms)";
+  }
+
+  /**
+   *  Whether the impacts were computed from this version of an index.
+   *  @param reader The index reader.
+   *  @return True if they were.
+   *  @throws IOException
+   */
+  public boolean describes(IndexReader reader) throws IOException {
+    return reader.maxDoc () == this.maxDoc &&
+      IndexFingerprint.of (reader) == this.fingerprint;
+  }
+
+  /**
+   *  Get the number of documents of the Lucene index the impacts were
+   *  computed from.
+   *  @return The number of documents (IndexReader.maxDoc).
+   */
+  public int maxDoc() {
+    return this.maxDoc;
+  }
+
+  /**
+   *  Get the segments of a term.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @return The term's segments, or null if the term does not occur.
+   */
+  public TermSegments segments(String termString, String fieldString) {
+    return this.terms.get (new Term (fieldString, termString));
+  }
+
+  /**
+   *  Get the score that an impact stands for.
+   *  @param impact The quantized impact.
+   *  @return The approximate BM25 score.
+   */
+  public double score(int impact) {
+    return impact * this.scale;
+  }
+
+  /**
+   *  Get the impact of a segment.
+   *  @param segment The index of the segment.
+   *  @return The impact of every posting in the segment.
+   */
+  public int impact(int segment) {
+    return this.segmentImpacts[segment];
+  }
+
+  /**
+   *  Get the number of postings in a segment.
+   *  @param segment The index of the segment.
+   *  @return The number of postings.
+   */
+  public int length(int segment) {
+    return this.segmentLengths[segment];
+  }
+
+  /**
+   *  Get a document of a segment.
+   *  @param segment The index of the segment.
+   *  @param i The index of the posting within the segment.
+   *  @return The internal docid.
+   */
+  public int doc(int segment, int i) {
+    return this.postings.get (this.segmentStarts[segment] + i);
+  }
+}
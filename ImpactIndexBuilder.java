@@ -0,0 +1,280 @@
+/**
+ *  ImpactIndexBuilder is an offline tool that writes an impact-ordered
+ *  index (see ImpactIndex) for a Lucene index.  Every posting of every
+ *  indexed field with norms gets its BM25 score, computed exactly as
+ *  the #SCORE operator computes it (the same idf, field lengths and
+ *  average length, and the configured k1 and b), quantized linearly to
+ *  an integer impact of at most the given number of bits.  The
+ *  postings of each term are then written grouped by impact, highest
+ *  first.
+ *
+ *  Usage:  java ImpactIndexBuilder parameterFile
+ *
+ *  The parameter file uses the same format as QryEval's.  It needs
+ *  indexPath and impactIndexPath (the file to write), and may give
+ *  BM25:k_1, BM25:b and impactBits (1 to 16; 8 is the default).
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.*;
+
+public class ImpactIndexBuilder {
+
+  static String usage = "Usage:  java ImpactIndexBuilder paramFile\n\n";
+
+  /**
+   *  The default number of bits of an impact.
+   */
+  public static final int DEFAULT_BITS = 8;
+
+  /**
+   *  Build an impact index.
+   *  @param args The name of the parameter file.
+   *  @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+
+    if (args.length < 1) {
+      System.err.println (usage);
+      System.exit (1);
+    }
+
+    Map<String, String> params = QryEval.readParameters (args[0]);
+
+    if (! params.containsKey ("indexPath") ||
+	! params.containsKey ("impactIndexPath")) {
+      System.err.println ("Error: Parameters were missing.");
+      System.exit (1);
+    }
+
+    double k1 = 0, b = 0;
+    int bits = DEFAULT_BITS;
+
+    if (params.containsKey ("BM25:k_1"))
+      k1 = Double.parseDouble (params.get ("BM25:k_1"));
+    if (params.containsKey ("BM25:b"))
+      b = Double.parseDouble (params.get ("BM25:b"));
+    if (params.containsKey ("impactBits"))
+      bits = Integer.parseInt (params.get ("impactBits"));
+
+    if (bits < 1 || bits > 16)
+      QryEval.fatalError ("Error: impactBits must be from 1 to 16");
+
+    //  BM25 scoring reads the collection statistics and the document
+    //  lengths from QryEval.
+
+    QryEval.READER = DirectoryReader.open (
+      FSDirectory.open (new File (params.get ("indexPath"))));
+    QryEval.dls = new DocLengthStore (QryEval.READER, null);
+    QryEval.stats = new CollectionStats (QryEval.READER);
+
+    long start = System.currentTimeMillis ();
+    File out = new File (params.get ("impactIndexPath"));
+
+    long postings = build (QryEval.READER, new RetrievalModelBM25 (b, k1, 0),
+			   bits, out);
+
+    System.out.println ("Wrote " + postings + " postings to " + out +
+			" in " + (System.currentTimeMillis () - start) + " ms");
+    QryEval.READER.close ();
+  }
+
+  /**
+   *  Write the impact index of a Lucene index.  QryEval.stats and
+   *  QryEval.dls must describe the same index.  An index whose impact
+   *  index would be larger than ImpactIndex can map (2 GB) is refused,
+   *  before the file is written.
+   *  @param reader The Lucene index.
+   *  @param rm The BM25 retrieval model; its k1 and b are used.
+   *  @param bits The number of bits of an impact.
+   *  @param out The file to write.
+   *  @return The number of postings written.
+   *  @throws IOException
+   */
+  public static long build(IndexReader reader, RetrievalModelBM25 rm,
+			   int bits, File out) throws IOException {
+
+    //  Scores are at most the largest idf (the tf weight is less than
+    //  1), which is the idf of a term that occurs once.  Impacts are
+    //  scores in units of scale, rounded.
+
+    int maxImpact = (1 << bits) - 1;
+    double maxScore = QryopSlScore.bm25Idf (1);
+    double scale = (maxScore > 0) ? maxScore / maxImpact : 1.0;
+
+    //  The dictionary and the segment table are kept in memory; the
+    //  postings go to a temporary file and are copied to the end of the
+    //  index once their offset is known.
+
+    ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream ();
+    DataOutputStream dictionary = new DataOutputStream (dictionaryBytes);
+    ByteArrayOutputStream segmentBytes = new ByteArrayOutputStream ();
+    DataOutputStream segments = new DataOutputStream (segmentBytes);
+
+    File postingsFile =
+      File.createTempFile ("impacts", ".tmp", out.getAbsoluteFile ().getParentFile ());
+    DataOutputStream postings = new DataOutputStream (
+      new BufferedOutputStream (new FileOutputStream (postingsFile)));
+
+    int numTerms = 0;
+    int numSegments = 0;
+    long numPostings = 0;
+
+    try {
+      FieldInfos fieldInfos = MultiFields.getMergedFieldInfos (reader);
+      Fields fields = MultiFields.getFields (reader);
+      Bits liveDocs = MultiFields.getLiveDocs (reader);
+
+      //  Postings of one term, as (maxImpact - impact) << 32 | docid, so
+      //  that sorting them orders them by impact, highest first, then by
+      //  docid.
+
+      long[] keys = new long[1024];
+
+      for (String field : fields) {
+	FieldInfo info = fieldInfos.fieldInfo (field);
+
+	if (info == null || ! info.isIndexed () || ! info.hasNorms ())
+	  continue;
+
+	DocLengthStore.FieldLengths lengths = QryEval.dls.field (field);
+	double avglen = QryopSlScore.bm25AvgLen (field);
+	TermsEnum termsEnum = fields.terms (field).iterator (null);
+	BytesRef text;
+	DocsEnum docs = null;
+
+	while ((text = termsEnum.next ()) != null) {
+
+	  double idf = QryopSlScore.bm25Idf (termsEnum.docFreq ());
+	  int df = 0;
+
+	  docs = termsEnum.docs (liveDocs, docs, DocsEnum.FLAG_FREQS);
+
+	  while (docs.nextDoc () != DocIdSetIterator.NO_MORE_DOCS) {
+	    int doc = docs.docID ();
+	    double score = QryopSlScore.bm25Score (rm, idf, docs.freq (),
+						   lengths.get (doc), avglen);
+	    int impact = (int) Math.min (Math.round (score / scale), maxImpact);
+
+	    if (df == keys.length)
+	      keys = Arrays.copyOf (keys, 2 * keys.length);
+
+	    keys[df++] = ((long) (maxImpact - impact) << 32) | doc;
+	  }
+
+	  if (df == 0)
+	    continue;
+
+	  if (4L * (numPostings + df) > ImpactIndex.MAX_BYTES)
+	    throw new IOException ("The impact index would be larger than " +
+				   ImpactIndex.MAX_BYTES + " bytes");
+
+	  Arrays.sort (keys, 0, df);
+
+	  //  One segment per run of equal impacts.
+
+	  int first = numSegments;
+
+	  for (int i = 0; i < df; ) {
+	    int impact = maxImpact - (int) (keys[i] >>> 32);
+	    int j = i;
+
+	    while (j < df && (maxImpact - (int) (keys[j] >>> 32)) == impact) {
+	      postings.writeInt ((int) keys[j]);
+	      j ++;
+	    }
+
+	    segments.writeInt (impact);
+	    segments.writeInt ((int) numPostings);
+	    segments.writeInt (j - i);
+
+	    numSegments ++;
+	    numPostings += j - i;
+	    i = j;
+	  }
+
+	  writeString (dictionary, field);
+	  writeString (dictionary, text.utf8ToString ());
+	  dictionary.writeInt (df);
+	  dictionary.writeInt (first);
+	  dictionary.writeInt (numSegments - first);
+	  numTerms ++;
+	}
+      }
+
+      postings.close ();
+
+      long bytes = ImpactIndex.HEADER_BYTES + dictionaryBytes.size () +
+	segmentBytes.size () + 3 + 4L * numPostings;
+
+      if (bytes > ImpactIndex.MAX_BYTES)
+	throw new IOException ("The impact index would be larger than " +
+			       ImpactIndex.MAX_BYTES + " bytes");
+
+      //  Write the index.
+
+      DataOutputStream index = new DataOutputStream (
+	new BufferedOutputStream (new FileOutputStream (out)));
+
+      try {
+	index.writeInt (ImpactIndex.MAGIC);
+	index.writeInt (ImpactIndex.VERSION);
+	index.writeDouble (rm.k1);
+	index.writeDouble (rm.b);
+	index.writeInt (bits);
+	index.writeDouble (scale);
+	index.writeInt (reader.maxDoc ());
+	index.writeLong (IndexFingerprint.of (reader));
+	index.writeInt (numTerms);
+	index.writeInt (numSegments);
+	index.writeLong (numPostings);
+
+	dictionary.flush ();
+	dictionaryBytes.writeTo (index);
+	segments.flush ();
+	segmentBytes.writeTo (index);
+
+	while (index.size () % 4 != 0)
+	  index.writeByte (0);
+
+	InputStream in = new BufferedInputStream (
+	  new FileInputStream (postingsFile));
+
+	try {
+	  byte[] buffer = new byte[1 << 16];
+	  int n;
+
+	  while ((n = in.read (buffer)) > 0)
+	    index.write (buffer, 0, n);
+	} finally {
+	  in.close ();
+	}
+      } finally {
+	index.close ();
+      }
+    } finally {
+      postings.close ();
+      postingsFile.delete ();
+    }
+
+    return numPostings;
+  }
+
+  //  A string is an unsigned short length and that many UTF-8 bytes.
+
+  private static void writeString (DataOutputStream out, String s)
+    throws IOException {
+
+    byte[] bytes = s.getBytes ("UTF-8");
+
+    out.writeShort (bytes.length);
+    out.write (bytes);
+  }
+}
@@ -0,0 +1,58 @@
+/**
+ *  IndexFingerprint identifies one version of a Lucene index, so that
+ *  files derived from an index (e.g., memory-mapped document lengths)
+ *  can tell whether they still describe it.  The fingerprint combines
+ *  the reader's version, its numbers of documents and live documents,
+ *  and the name, size, document count and deletions of every segment.
+ *  Re-indexing or deleting documents changes it, even when maxDoc
+ *  stays the same.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+
+import org.apache.lucene.index.*;
+
+public class IndexFingerprint {
+
+  /**
+   *  Get the fingerprint of an index.
+   *  @param reader The index reader.
+   *  @return The fingerprint.
+   *  @throws IOException
+   */
+  public static long of(IndexReader reader) throws IOException {
+
+    long h = 0xcbf29ce484222325L;
+
+    if (reader instanceof DirectoryReader)
+      h = mix (h, ((DirectoryReader) reader).getVersion ());
+
+    h = mix (h, reader.maxDoc ());
+    h = mix (h, reader.numDocs ());
+
+    for (AtomicReaderContext leaf : reader.leaves ()) {
+      h = mix (h, leaf.docBase);
+      h = mix (h, leaf.reader ().numDocs ());
+
+      if (leaf.reader () instanceof SegmentReader) {
+	SegmentInfoPerCommit segment =
+	  ((SegmentReader) leaf.reader ()).getSegmentInfo ();
+
+	h = mix (h, segment.info.name.hashCode ());
+	h = mix (h, segment.info.getDocCount ());
+	h = mix (h, segment.getDelGen ());
+	h = mix (h, segment.sizeInBytes ());
+      }
+    }
+
+    return h;
+  }
+
+  //  Fold a value into the hash, FNV-1a style, one long at a time.
+
+  private static long mix (long h, long value) {
+    return (h ^ value) * 0x100000001b3L;
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ *  IndriSmoothing holds what Indri's Dirichlet and Jelinek-Mercer
+ *  smoothing needs to score one query term:  the term's collection
+ *  probability, the model's mu and lambda, and the lengths of the
+ *  field the term occurs in.  The constants are computed once per
+ *  term, when its #SCORE operator is evaluated, so that scoring a
+ *  document costs a length lookup and a few multiplications.
+ *
+ *  A document that does not contain the term gets the term's default
+ *  score.  An operator such as #AND needs default scores for many
+ *  documents, so they can also be computed for a block of docids at
+ *  once, in one loop over primitive arrays.
+ *
+ *  In log space the default score is log pMLE plus a factor that
+ *  depends only on the document's length.  The factors of a field are
+ *  tabulated once by length (see RetreivalModelIndri.logSmoothing), so
+ *  a log default score is a table lookup and an addition.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+public class IndriSmoothing {
+
+  /**
+   *  The term's collection probability, ctf / |C|.
+   */
+  public final double pMLE;
+
+  private final double mu;
+  private final double lambda;
+  private final DocLengthStore.FieldLengths lengths;
+
+  //  mu * pMLE and (1 - lambda) * pMLE, the parts of every score that
+  //  do not depend on the document.
+
+  private final double muP;
+  private final double background;
+
+  //  log pMLE, and the field's log smoothing factors by length, for
+  //  log-space evaluation.
+
+  private final double logPMLE;
+  private final double[] logSmoothing;
+
+  /**
+   *  Constructor.
+   *  @param rm The retrieval model.
+   *  @param pMLE The term's collection probability.
+   *  @param lengths The lengths of the field the term occurs in.
+   */
+  public IndriSmoothing(RetreivalModelIndri rm, double pMLE,
+			DocLengthStore.FieldLengths lengths) {
+
+    this.pMLE = pMLE;
+    this.mu = rm.mu;
+    this.lambda = rm.lambda;
+    this.lengths = lengths;
+
+    this.muP = rm.mu * pMLE;
+    this.background = (1 - rm.lambda) * pMLE;
+    this.logPMLE = Math.log (pMLE);
+    this.logSmoothing = rm.logSpace ? rm.logSmoothing (lengths) : null;
+  }
+
+  /**
+   *  Get the score of a document that contains the term.
+   *  @param tf The term's frequency in the document.
+   *  @param docid The internal document id.
+   *  @return The score.
+   */
+  public double score(int tf, int docid) {
+    return this.lambda * ((tf + this.muP) / (this.lengths.get (docid) + this.mu))
+      + this.background;
+  }
+
+  /**
+   *  Get the logarithm of the score of a document that contains the term.
+   *  @param tf The term's frequency in the document.
+   *  @param docid The internal document id.
+   *  @return The logarithm of the score.
+   */
+  public double logScore(int tf, int docid) {
+    return Math.log (score (tf, docid));
+  }
+
+  /**
+   *  Get the score of a document that does not contain the term.
+   *  @param docid The internal document id.
+   *  @return The default score.
+   */
+  public double defaultScore(int docid) {
+    return this.lambda * (this.muP / (this.lengths.get (docid) + this.mu))
+      + this.background;
+  }
+
+  /**
+   *  Get the logarithm of the default score of a document.  The default
+   *  score is pMLE times a factor that depends only on the document's
+   *  length, so its logarithm is log pMLE plus the tabulated log of that
+   *  factor.  The model must be in log space.
+   *  @param docid The internal document id.
+   *  @return The logarithm of the default score.
+   */
+  public double defaultLogScore(int docid) {
+    return this.logPMLE + this.logSmoothing[this.lengths.get (docid)];
+  }
+
+  /**
+   *  Get the default scores of a block of documents.
+   *  @param docids The internal document ids.
+   *  @param n The number of documents in the block.
+   *  @param scores Receives the default score of docids[i] in scores[i].
+   *  @return void
+   */
+  public void defaultScores(int[] docids, int n, double[] scores) {
+
+    double lambda = this.lambda;
+    double mu = this.mu;
+    double muP = this.muP;
+    double background = this.background;
+
+    for (int i = 0; i < n; i++)
+      scores[i] = lambda * (muP / (this.lengths.get (docids[i]) + mu))
+	+ background;
+  }
+
+  /**
+   *  Get the logarithms of the default scores of a block of documents.
+   *  @param docids The internal document ids.
+   *  @param n The number of documents in the block.
+   *  @param scores Receives the log default score of docids[i] in
+   *  scores[i].
+   *  @return void
+   */
+  public void defaultLogScores(int[] docids, int n, double[] scores) {
+
+    double logPMLE = this.logPMLE;
+    double[] logSmoothing = this.logSmoothing;
+
+    for (int i = 0; i < n; i++)
+      scores[i] = logPMLE + logSmoothing[this.lengths.get (docids[i])];
+  }
+}
@@ -4,6 +4,30 @@
  *  Its purpose is to provide a simpler view of inverted lists than
  *  Lucene's native implementation.
  *
+ *  Postings are stored column-wise in primitive arrays:  docids[n]
+ *  and tfs[n] describe the n'th posting, and its positions are
+ *  positions[posOffsets[n]] ... positions[posOffsets[n+1]-1].  This
+ *  avoids allocating an object (and a boxed Integer per position)
+ *  for every posting of a frequent term.
+ *
+ *  An inverted list fetched from the index can also be left in
+ *  streaming mode.  Then df and ctf are those the list will have,
+ *  cursor() reads postings directly from Lucene, and the postings are
+ *  only copied into the arrays by materialize.  The array-style
+ *  accessors (getDocid, getTf, getPosition, advance, appendPosting,
+ *  ...) do not check for a streaming list, because they are called
+ *  once per posting; a caller materializes the list once before using
+ *  them.
+ *
+ *  Postings are read from each index segment separately, not through
+ *  Lucene's merged (Multi*) views.  A segment numbers its documents
+ *  from 0; adding the segment's docBase gives the document's id in the
+ *  whole index.
+ *
+ *  If QryEval.postings is set, streaming lists read their postings
+ *  from that exported copy of the index (see MappedPostings) instead of
+ *  from Lucene.
+ *
  *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
  */
 
@@ -16,34 +40,36 @@ import org.apache.lucene.search.*;
 
 public class InvList {
 
-  //  Utility class that makes it easier to construct postings.
+  //  Utility class that makes it easier to inspect a single posting.
+  //  It is a copy of one row of the inverted list, so it should not be
+  //  used inside query evaluation loops.
 
   public class DocPosting {
 
     public int docid = 0;
-    public int tf = 0;    
-    public Vector<Integer> positions = new Vector<Integer>();
+    public int tf = 0;
+    public int[] positions;
+
 
-        
     public DocPosting(int d, int... locations) {
       this.docid = d;
       this.tf = locations.length;
-      for (int i = 0; i < locations.length; i++)
-        this.positions.add(locations[i]);
+      this.positions = locations;
     }
 
     public DocPosting(int d, List<Integer> locations) {
       this.docid = d;
       this.tf = locations.size();
+      this.positions = new int[this.tf];
       for (int i = 0; i < locations.size(); i++)
-        this.positions.add(locations.get(i));
-    } 
-    
-    public Vector<Integer> getLocations()
+        this.positions[i] = locations.get(i);
+    }
+
+    public int[] getLocations()
     {
     	return this.positions;
     }
-    
+
   }
 
   //  Class variables.
@@ -51,7 +77,25 @@ public class InvList {
   public int ctf = 0;
   public int df = 0;
   public String field;
-  public Vector<DocPosting> postings = new Vector<DocPosting>();
+
+  //  Column-wise postings.  posOffsets has df+1 valid entries.
+
+  int[] docids = new int[0];
+  int[] tfs = new int[0];
+  int[] posOffsets = new int[] { 0 };
+  int[] positions = new int[0];
+
+  //  The term of a streaming inverted list, or null if the postings
+  //  are in the arrays.  A list can be shared by the queries of a
+  //  batch (see InvListCache), so materialize is synchronized and this
+  //  is volatile:  a thread that sees null also sees the arrays.
+
+  private volatile BytesRef streamTerm = null;
+
+  //  Where the postings of a streaming list are in QryEval.postings, or
+  //  null if they are read from Lucene.
+
+  private MappedPostings.TermEntry mapped = null;
 
   /**
    *  Constructor.  An empty inverted list. Useful for some query operators.
@@ -73,6 +117,20 @@ public class InvList {
    *  @throws IOException
    */
   public InvList(String termString, String fieldString) throws IOException {
+    this (termString, fieldString, true);
+  }
+
+  /**
+   *  Fetch an inverted list from the index, optionally in streaming
+   *  mode.  A streaming list does not read any postings until they
+   *  are used.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @param materialize If false, leave the list in streaming mode.
+   *  @throws IOException
+   */
+  public InvList(String termString, String fieldString, boolean materialize)
+    throws IOException {
 
     //  Store the field name.  This is used by other query operators.
 
@@ -81,39 +139,250 @@ public class InvList {
     //  Prepare to access the index.
 
     BytesRef termBytes = new BytesRef(termString);
+
+    //  Exported postings have the live df and ctf, as the Lucene path
+    //  below does, so both backends score alike.
+
+    if (QryEval.postings != null) {
+      this.mapped = QryEval.postings.entry (termString, fieldString);
+
+      if (this.mapped == null)
+	return;
+
+      this.streamTerm = termBytes;
+      this.df = this.mapped.df;
+      this.ctf = this.mapped.ctf;
+
+      if (materialize)
+	materialize ();
+      return;
+    }
+
     Term term = new Term(fieldString, termBytes);
-    
 
-    if (QryEval.READER.docFreq(term) < 1)
+    //  A streaming list reports the df and ctf that the materialized
+    //  list would have.  The index statistics also count deleted
+    //  documents, so they are only used if there are none.
+
+    if (QryEval.READER.hasDeletions())
+      countPostings (term);
+    else {
+      this.df = QryEval.stats.docFreq(term);
+      this.ctf = (int) QryEval.stats.totalTermFreq(term);
+    }
+
+    if (this.df < 1)
+      return;
+
+    this.streamTerm = termBytes;
+
+    if (materialize)
+      materialize ();
+  }
+
+  /**
+   *  Count the live postings of a term, without reading positions.
+   *  The index statistics are used for segments without deletions.
+   *  @param term The term.
+   *  @throws IOException
+   */
+  private void countPostings (Term term) throws IOException {
+
+    for (AtomicReaderContext leaf : QryEval.READER.leaves()) {
+      AtomicReader segment = leaf.reader();
+
+      if (segment.getLiveDocs() == null) {
+	this.df += segment.docFreq(term);
+	this.ctf += (int) segment.totalTermFreq(term);
+	continue;
+      }
+
+      DocsEnum docs = segment.termDocsEnum (term);
+
+      if (docs == null)
+	continue;			// The term is not in this segment.
+
+      while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+	this.df++;
+	this.ctf += docs.freq();
+      }
+    }
+  }
+
+  /**
+   *  Copy the postings of a streaming inverted list out of the index
+   *  into the arrays.  Does nothing if the list is not streaming.
+   *  @throws IOException
+   */
+  public synchronized void materialize () throws IOException {
+
+    if (this.streamTerm == null)
       return;
 
-    //  Lookup the inverted list.
+    //  Size the arrays from df and ctf so that copying the list does
+    //  not have to grow them.
 
-    DocsAndPositionsEnum iList =
-      MultiFields.getTermPositionsEnum(QryEval.READER,
-				       MultiFields.getLiveDocs(QryEval.READER),
-				       fieldString, termBytes);
+    int docFreq = this.df;
+    int totalTermFreq = this.ctf;
+
+    this.docids = new int[docFreq];
+    this.tfs = new int[docFreq];
+    this.posOffsets = new int[docFreq + 1];
+    this.positions = new int[(totalTermFreq > 0) ? totalTermFreq : docFreq];
+
+    //  Count the postings in locals.  Other threads can read df and ctf
+    //  without the lock, so they are only assigned once, at the end.
+
+    int n = 0;
+    int total = 0;
+
+    if (this.mapped != null) {
+      InvListCursor postings = QryEval.postings.cursor (this.mapped);
+
+      while (postings.nextDoc () != InvListCursor.NO_MORE_DOCS) {
+	int tf = postings.freq ();
+
+	ensureCapacity (n + 1, total + tf);
+
+	this.docids[n] = postings.docID ();
+	this.tfs[n] = tf;
+
+	for (int j = 0; j < tf; j++)
+	  this.positions[total + j] = postings.position (j);
+
+	n++;
+	total += tf;
+	this.posOffsets[n] = total;
+      }
+
+      this.df = n;
+      this.ctf = total;
+      this.streamTerm = null;
+      return;
+    }
 
     //  Copy from Lucene inverted list format to our inverted list
-    //  format. This is a little inefficient, but allows query
-    //  operators such as #SYN and #NEAR/n to be insulated from the
-    //  details of Lucene inverted list implementations.
+    //  format, one segment at a time. This is a little inefficient,
+    //  but allows query operators such as #SYN and #NEAR/n to be
+    //  insulated from the details of Lucene inverted list
+    //  implementations.
+
+    for (AtomicReaderContext leaf : QryEval.READER.leaves()) {
+
+      DocsAndPositionsEnum iList = openPostings (leaf);
+
+      if (iList == null)
+	continue;			// The term is not in this segment.
+
+      while (iList.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+
+	int tf = iList.freq();
+
+	ensureCapacity (n + 1, total + tf);
+
+	this.docids[n] = leaf.docBase + iList.docID();
+	this.tfs[n] = tf;
+
+	for (int j = 0; j < tf; j++)
+	  this.positions[total + j] = iList.nextPosition();
+
+	n++;
+	total += tf;
+	this.posOffsets[n] = total;
+      }
+    }
+
+    this.df = n;
+    this.ctf = total;
+    this.streamTerm = null;
+  }
+
+  /**
+   *  Estimate the memory used by the postings of this list.  A
+   *  streaming list holds no postings.
+   *  @return The size in bytes.
+   */
+  public long sizeInBytes () {
 
-    while (iList.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+    if (this.streamTerm != null)
+      return 0;
 
-      int tf = iList.freq();
-      int[] positions = new int[tf];
+    return 4L * (this.docids.length + this.tfs.length +
+		 this.posOffsets.length + this.positions.length);
+  }
 
-      for (int j = 0; j < tf; j++)
-        positions[j] = iList.nextPosition();
+  /**
+   *  Materialize a streaming inverted list before print uses its
+   *  arrays.  A read failure is rethrown unchecked.
+   */
+  private void ensureMaterialized () {
+
+    if (this.streamTerm == null)
+      return;
 
-      this.postings.add(new DocPosting(iList.docID(), positions));
-      this.df++;
-      this.ctf += tf;
+    try {
+      materialize ();
+    } catch (IOException e) {
+      throw new RuntimeException (e);
+    }
+  }
+
+  /**
+   *  Open Lucene's postings of a streaming inverted list in one
+   *  segment.  Deleted documents are skipped.
+   *  @param leaf The segment.
+   *  @return The postings, including positions, with docids relative
+   *  to the segment, or null if the term is not in the segment.
+   *  @throws IOException
+   */
+  private DocsAndPositionsEnum openPostings (AtomicReaderContext leaf)
+    throws IOException {
+    return leaf.reader().termPositionsEnum (new Term (this.field, this.streamTerm));
+  }
+
+  /**
+   *  Get a cursor that walks this inverted list.  For a streaming
+   *  list the cursor reads directly from the index and the list is
+   *  not materialized.  Each call returns an independent cursor.
+   *  @return A cursor positioned before the first document.
+   *  @throws IOException
+   */
+  public InvListCursor cursor () throws IOException {
+
+    if (this.streamTerm != null && this.mapped != null)
+      return QryEval.postings.cursor (this.mapped);
+
+    if (this.streamTerm != null)
+      return new StreamCursor (new Term (this.field, this.streamTerm),
+			       QryEval.READER.leaves());
+
+    return new ArrayCursor (0, this.df);
+  }
+
+  /**
+   *  Make sure that the arrays can hold the specified number of
+   *  postings and positions.  Arrays grow geometrically, so appending
+   *  postings one at a time takes amortized constant time.
+   *  @param postingCount The number of postings that must fit.
+   *  @param positionCount The number of positions that must fit.
+   */
+  private void ensureCapacity (int postingCount, int positionCount) {
+
+    if (postingCount > this.docids.length) {
+      int capacity = Math.max (postingCount, Math.max (8, this.docids.length * 2));
+      this.docids = Arrays.copyOf (this.docids, capacity);
+      this.tfs = Arrays.copyOf (this.tfs, capacity);
+    }
+
+    if (postingCount + 1 > this.posOffsets.length)
+      this.posOffsets = Arrays.copyOf (this.posOffsets, this.docids.length + 1);
+
+    if (positionCount > this.positions.length) {
+      int capacity = Math.max (positionCount, Math.max (16, this.positions.length * 2));
+      this.positions = Arrays.copyOf (this.positions, capacity);
     }
   }
 
-  
   /**
    *  Append a posting to the posting list.  Posting must be appended
    *  in docid order, otherwise this method fails.
@@ -122,54 +391,304 @@ public class InvList {
    *  @result true if the posting was added successfully, otherwise false.
    */
   public boolean appendPosting (int docid, List<Integer> positions) {
-    
+
     //  A posting can only be appended if its docid is greater than
     //  the last docid.
 
-    if ((this.df > 1) &&
-	(this.postings.get(this.df-1).docid >= docid))
+    if ((this.df > 0) &&
+	(this.docids[this.df-1] >= docid))
       return false;
 
-    DocPosting p = new DocPosting (docid, positions);
+    int tf = positions.size();
+
+    ensureCapacity (this.df + 1, this.ctf + tf);
 
-    this.postings.add (p);
+    for (int j = 0; j < tf; j++)
+      this.positions[this.ctf + j] = positions.get(j);
+
+    this.docids[this.df] = docid;
+    this.tfs[this.df] = tf;
     this.df ++;
-    this.ctf += p.tf;
+    this.ctf += tf;
+    this.posOffsets[this.df] = this.ctf;
     return true;
   }
 
+  /**
+   *  Append a posting to the posting list without boxing its
+   *  positions.  Posting must be appended in docid order, otherwise
+   *  this method fails.
+   *  @param docid The posting internal document id.
+   *  @param positions A buffer of positions where the term occurs.
+   *  @param count The number of positions to copy from the buffer.
+   *  @result true if the posting was added successfully, otherwise false.
+   */
+  public boolean appendPosting (int docid, int[] positions, int count) {
+
+    if ((this.df > 0) &&
+	(this.docids[this.df-1] >= docid))
+      return false;
+
+    ensureCapacity (this.df + 1, this.ctf + count);
+
+    System.arraycopy (positions, 0, this.positions, this.ctf, count);
+
+    this.docids[this.df] = docid;
+    this.tfs[this.df] = count;
+    this.df ++;
+    this.ctf += count;
+    this.posOffsets[this.df] = this.ctf;
+    return true;
+  }
+
+  /**
+   *  Find the first posting at or after index from whose docid is
+   *  greater than or equal to target.  The search gallops forward
+   *  from "from" and then does a binary search, so it costs
+   *  O(log d) where d is the distance skipped, which makes it cheap to
+   *  intersect a short list with a long one.
+   *  @param from The index to start the search at.
+   *  @param target The internal document id to look for.
+   *  @return The index of the posting, or df if there is none.
+   */
+  public int advance(int from, int target) {
+
+    //  Gallop:  find a range (lo, hi] that must contain the answer.
+
+    int lo = from - 1;
+    int step = 1;
+    int hi = from;
+
+    while ((hi < this.df) && (this.docids[hi] < target)) {
+      lo = hi;
+      hi = from + step;
+      step *= 2;
+    }
+
+    if (hi > this.df)
+      hi = this.df;
+
+    //  Binary search:  docids[lo] < target <= docids[hi].
+
+    while (hi - lo > 1) {
+      int mid = (lo + hi) >>> 1;
+
+      if (this.docids[mid] < target)
+	lo = mid;
+      else
+	hi = mid;
+    }
+
+    return hi;
+  }
+
+  /**
+   *  Does the inverted list contain the specified document?
+   *  @param docID The internal document id.
+   *  @return true if the document has a posting, otherwise false.
+   */
   public boolean containsDocument(int docID)
   {
-	  for(int m =0;m<this.postings.size();m++)
-		  if(this.postings.get(m).docid == docID)
-			  return true;
-		  else if(this.postings.get(m).docid > docID)
-			  break;
-		  else if(this.postings.get(m).docid < docID)
-		  continue;
-  	
-	  return false;
+	  int n = advance(0, docID);
+
+	  return (n < this.df) && (this.docids[n] == docID);
   }
+
   /**
    *  Get the n'th document id from the inverted list.
    *  @param n The index of the requested document.
    *  @return The internal document id.
    */
   public int getDocid(int n) {
-    return this.postings.get(n).docid;
+    return this.docids[n];
   }
-  
+
+  /**
+   *  Get a copy of the n'th posting.  This allocates, so query
+   *  operators should prefer getDocid, getTf and getPosition.
+   *  @param index The index of the requested posting.
+   *  @return The posting.
+   */
   public DocPosting getPostings(int index)
   {
-  	return ((Vector<DocPosting>)this.postings).get(index);
+  	return new DocPosting (this.docids[index], getPositions(index));
   }
+
   /**
    *  Get the term frequency in the n'th document of the inverted list.
    *  @param n The index of the requested document term frequency.
    *  @return The document's term frequency.
    */
   public int getTf(int n) {
-    return this.postings.get(n).tf;
+    return this.tfs[n];
+  }
+
+  /**
+   *  Get the j'th position of the term in the n'th document of the
+   *  inverted list.
+   *  @param n The index of the requested document.
+   *  @param j The index of the requested position within the document.
+   *  @return The position.
+   */
+  public int getPosition(int n, int j) {
+    return this.positions[this.posOffsets[n] + j];
+  }
+
+  /**
+   *  Get a copy of the positions of the term in the n'th document of
+   *  the inverted list.
+   *  @param n The index of the requested document.
+   *  @return The positions, in increasing order.
+   */
+  public int[] getPositions(int n) {
+    return Arrays.copyOfRange (this.positions, this.posOffsets[n],
+			       this.posOffsets[n+1]);
+  }
+
+  //  A cursor over the arrays of a materialized inverted list, or
+  //  over postings start ... end-1 of them.
+
+  private class ArrayCursor extends InvListCursor {
+
+    private int start;
+    private int end;
+    private int n;
+
+    public ArrayCursor (int start, int end) {
+      this.start = start;
+      this.end = end;
+      this.n = start - 1;
+    }
+
+    public int docID () {
+      if (n < start)
+        return -1;
+      return (n < end) ? docids[n] : NO_MORE_DOCS;
+    }
+
+    public int nextDoc () {
+      if (n < end)
+        n ++;
+      return docID ();
+    }
+
+    public int advance (int target) {
+      if (docID () < target)
+        n = Math.min (InvList.this.advance (Math.max (n, start), target), end);
+      return docID ();
+    }
+
+    public int freq () {
+      return (n >= start && n < end) ? tfs[n] : 0;
+    }
+
+    public int position (int j) {
+      return positions[posOffsets[n] + j];
+    }
+  }
+
+  //  A cursor that reads a streaming inverted list directly from
+  //  Lucene, one segment after another.  Positions are decoded into a
+  //  reusable buffer, and only for documents whose positions are
+  //  requested.
+
+  private static class StreamCursor extends InvListCursor {
+
+    private Term term;
+    private List<AtomicReaderContext> leaves;
+    private int leaf = -1;
+    private int docBase = 0;
+    private DocsAndPositionsEnum iList = null;
+    private int doc = -1;
+    private int[] buffer = new int[16];
+    private int bufferedDoc = -1;
+
+    public StreamCursor (Term term, List<AtomicReaderContext> leaves) {
+      this.term = term;
+      this.leaves = leaves;
+    }
+
+    //  Open the postings of the next segment that has the term.
+
+    private boolean nextLeaf () throws IOException {
+
+      while (++ leaf < leaves.size ()) {
+        AtomicReaderContext context = leaves.get (leaf);
+
+        iList = context.reader().termPositionsEnum (term);
+        docBase = context.docBase;
+
+        if (iList != null)
+          return true;
+      }
+
+      iList = null;
+      return false;
+    }
+
+    public int docID () {
+      return doc;
+    }
+
+    public int nextDoc () throws IOException {
+
+      if (doc == NO_MORE_DOCS)
+        return doc;
+
+      while (iList != null || nextLeaf ()) {
+        int d = iList.nextDoc ();
+
+        if (d != DocIdSetIterator.NO_MORE_DOCS)
+          return (doc = docBase + d);
+
+        iList = null;
+      }
+
+      return (doc = NO_MORE_DOCS);
+    }
+
+    public int advance (int target) throws IOException {
+
+      if (doc >= target)
+        return doc;
+
+      //  Skip the segments that end before the target.
+
+      while (iList == null ||
+             docBase + leaves.get (leaf).reader().maxDoc () <= target) {
+        if (! nextLeaf ())
+          return (doc = NO_MORE_DOCS);
+      }
+
+      int d = iList.advance (Math.max (target - docBase, 0));
+
+      if (d != DocIdSetIterator.NO_MORE_DOCS)
+        return (doc = docBase + d);
+
+      iList = null;
+      return nextDoc ();
+    }
+
+    public int freq () throws IOException {
+      return (doc >= 0 && doc != NO_MORE_DOCS) ? iList.freq () : 0;
+    }
+
+    public int position (int j) throws IOException {
+
+      if (bufferedDoc != doc) {
+        int tf = iList.freq ();
+
+        if (tf > buffer.length)
+          buffer = new int[Math.max (tf, 2 * buffer.length)];
+
+        for (int i = 0; i < tf; i++)
+          buffer[i] = iList.nextPosition ();
+
+        bufferedDoc = doc;
+      }
+
+      return buffer[j];
+    }
   }
 
   /**
@@ -177,14 +696,16 @@ public class InvList {
    */
   public void print() {
 
+    ensureMaterialized ();
+
     System.out.println("df:  " + this.df + ", ctf: " + this.ctf);
 
     for (int i = 0; i < this.df; i++) {
-      System.out.print("docid:  " + this.postings.elementAt(i).docid + ", tf: "
-          + this.postings.elementAt(i).tf + ", locs: ");
+      System.out.print("docid:  " + this.docids[i] + ", tf: "
+          + this.tfs[i] + ", locs: ");
 
-      for (int j = 0; j < this.postings.elementAt(i).tf; j++) {
-        System.out.print(this.postings.elementAt(i).positions.elementAt(j) + " ");
+      for (int j = 0; j < this.tfs[i]; j++) {
+        System.out.print(getPosition(i, j) + " ");
       }
 
       System.out.println();
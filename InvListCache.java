@@ -0,0 +1,352 @@
+/**
+ *  InvListCache keeps the decoded postings of frequently used terms,
+ *  so that a term that appears in many queries of a batch (e.g., a
+ *  frequent word, or a term that multipleRep expands into every field)
+ *  is read from the index once instead of once per query.
+ *
+ *  The cache is keyed by <term, field> and bounded by the memory its
+ *  lists use, not by their number.  Lists are evicted least recently
+ *  used first.  Because one long list can push out many short ones, a
+ *  list is only admitted if it has been asked for more than once, and
+ *  if it is worth more than the lists it would evict, where a list's
+ *  worth is how often it is used times how many postings it costs to
+ *  decode.  Usage counts are kept for all terms in a small count-min
+ *  sketch, halved periodically so that old usage fades.
+ *
+ *  The cache also keeps lists computed by query operators such as
+ *  #NEAR/n, #WINDOW/n and #SYN, keyed by the operator's signature
+ *  (its type, distance and arguments, as Qryop.toString spells them),
+ *  because phrases such as #NEAR/1 (new york) recur across queries
+ *  and are expensive to intersect.  Their cost is the number of
+ *  argument postings and positions that were combined, and lists that
+ *  were cheap to compute are not cached.
+ *
+ *  Cached lists are materialized and never modified afterwards, so
+ *  any number of queries can read them at once.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.*;
+
+public class InvListCache {
+
+  /**
+   *  The default memory budget, in megabytes.
+   */
+  public static final int DEFAULT_MB = 64;
+
+  //  Each list is charged this much on top of its arrays.
+
+  private static final long OVERHEAD_BYTES = 64;
+
+  /**
+   *  Computed lists whose arguments had fewer postings and positions
+   *  than this are not cached; recomputing them is cheap.
+   */
+  public static final long MIN_COMPUTED_COST = 1000;
+
+  //  A cached list and what it costs to make it again.
+
+  private static class Entry {
+    InvList list;
+    long cost;
+
+    Entry (InvList list, long cost) {
+      this.list = list;
+      this.cost = cost;
+    }
+  }
+
+  private long capacityBytes;
+  private long usedBytes = 0;
+
+  //  <term, field> or operator signature -> list, least recently used
+  //  first.
+
+  private LinkedHashMap<Object, Entry> lists =
+    new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+  //  Count-min sketch of how often each key has been asked for.
+
+  private static final int SKETCH_ROWS = 4;
+  private int[] sketch;
+  private int sketchMask;
+  private int sketchAdditions = 0;
+  private int sketchResetAt;
+
+  private Object readerKey = null;
+
+  private AtomicLong hits = new AtomicLong ();
+  private AtomicLong misses = new AtomicLong ();
+  private AtomicLong evictions = new AtomicLong ();
+  private AtomicLong rejections = new AtomicLong ();
+
+  /**
+   *  Constructor.
+   *  @param capacityBytes The memory the cached lists may use.
+   */
+  public InvListCache(long capacityBytes) {
+
+    this.capacityBytes = capacityBytes;
+
+    int width = 1 << 14;
+
+    this.sketch = new int[SKETCH_ROWS * width];
+    this.sketchMask = width - 1;
+    this.sketchResetAt = 10 * width;
+  }
+
+  /**
+   *  Get the inverted list of a term.  A cached list is materialized;
+   *  otherwise the list is read from the index in streaming mode, and
+   *  is materialized and cached only if the admission policy admits it.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @return The inverted list.
+   *  @throws IOException
+   */
+  public InvList get(String termString, String fieldString)
+    throws IOException {
+
+    Term term = new Term (fieldString, termString);
+    int frequency;
+
+    synchronized (this) {
+      checkReader (QryEval.READER);
+
+      Entry cached = this.lists.get (term);
+
+      if (cached != null) {
+	increment (term);
+	this.hits.incrementAndGet ();
+	return cached.list;
+      }
+
+      frequency = increment (term);
+    }
+
+    this.misses.incrementAndGet ();
+
+    InvList list = new InvList (termString, fieldString, false);
+
+    //  A term seen for the first time is probably not worth the copy.
+    //  Lists are read outside the lock; if two threads read the same
+    //  list at once, the second one is simply not admitted.
+
+    long cost = list.df + list.ctf;
+
+    if (frequency < 2 || list.df == 0 ||
+	bytes (list.df, list.ctf) > this.capacityBytes)
+      return list;
+
+    synchronized (this) {
+      if (this.lists.containsKey (term) ||
+	  ! admit (frequency, cost, bytes (list.df, list.ctf))) {
+	this.rejections.incrementAndGet ();
+	return list;
+      }
+    }
+
+    list.materialize ();
+    add (term, list, cost);
+
+    return list;
+  }
+
+  /**
+   *  Get a list that a query operator computed earlier.
+   *  @param signature The operator's signature (see Qryop.toString).
+   *  @return The list, or null if it is not cached.
+   */
+  public synchronized InvList getComputed(String signature) {
+
+    checkReader (QryEval.READER);
+    increment (signature);
+
+    Entry cached = this.lists.get (signature);
+
+    if (cached == null) {
+      this.misses.incrementAndGet ();
+      return null;
+    }
+
+    this.hits.incrementAndGet ();
+    return cached.list;
+  }
+
+  /**
+   *  Offer a list that a query operator computed to the cache.  The
+   *  list must not be modified afterwards.
+   *  @param signature The operator's signature (see Qryop.toString).
+   *  @param list The materialized list.
+   *  @param cost The number of argument postings and positions that
+   *  were combined to compute the list.
+   *  @return void
+   */
+  public void putComputed(String signature, InvList list, long cost) {
+
+    if (cost < MIN_COMPUTED_COST)
+      return;
+
+    long bytes = list.sizeInBytes () + OVERHEAD_BYTES;
+
+    synchronized (this) {
+      if (bytes > this.capacityBytes ||
+	  this.lists.containsKey (signature) ||
+	  estimate (signature) < 2 ||
+	  ! admit (estimate (signature), cost, bytes)) {
+	this.rejections.incrementAndGet ();
+	return;
+      }
+    }
+
+    add (signature, list, cost);
+  }
+
+  //  Add an admitted list, evicting others if necessary.
+
+  private synchronized void add (Object key, InvList list, long cost) {
+
+    if (this.lists.containsKey (key))
+      return;
+
+    long bytes = list.sizeInBytes () + OVERHEAD_BYTES;
+
+    makeRoom (bytes);
+    this.lists.put (key, new Entry (list, cost));
+    this.usedBytes += bytes;
+  }
+
+  //  The memory a list of df postings and ctf positions will use.
+
+  private static long bytes (long df, long ctf) {
+    return 4L * (3 * df + 1 + Math.max (ctf, df)) + OVERHEAD_BYTES;
+  }
+
+  //  The worth of keeping a list:  how often it is used times how much
+  //  work it takes to make it again.
+
+  private static double worth (int frequency, long cost) {
+    return (double) frequency * cost;
+  }
+
+  //  Decide whether a list should displace the least recently used
+  //  lists that would have to be evicted to make room for it.
+
+  private boolean admit (int frequency, long cost, long bytes) {
+
+    long needed = this.usedBytes + bytes - this.capacityBytes;
+
+    if (needed <= 0)
+      return true;
+
+    double victimWorth = 0;
+
+    for (Map.Entry<Object, Entry> entry : this.lists.entrySet()) {
+
+      if (needed <= 0)
+	break;
+
+      Entry victim = entry.getValue ();
+
+      victimWorth += worth (estimate (entry.getKey ()), victim.cost);
+      needed -= victim.list.sizeInBytes () + OVERHEAD_BYTES;
+    }
+
+    return worth (frequency, cost) > victimWorth;
+  }
+
+  //  Evict least recently used lists until there are bytes to spare.
+
+  private void makeRoom (long bytes) {
+
+    Iterator<Entry> i = this.lists.values().iterator();
+
+    while (this.usedBytes + bytes > this.capacityBytes && i.hasNext()) {
+      Entry victim = i.next ();
+
+      this.usedBytes -= victim.list.sizeInBytes () + OVERHEAD_BYTES;
+      i.remove ();
+      this.evictions.incrementAndGet ();
+    }
+  }
+
+  //  Count-min sketch maintenance.
+
+  private int slot (Object key, int row) {
+
+    int h = key.hashCode () * (0x9E3779B9 + 2 * row);
+
+    h ^= (h >>> 16);
+    return row * (this.sketchMask + 1) + (h & this.sketchMask);
+  }
+
+  private int estimate (Object key) {
+
+    int min = Integer.MAX_VALUE;
+
+    for (int row = 0; row < SKETCH_ROWS; row++)
+      min = Math.min (min, this.sketch[slot (key, row)]);
+
+    return min;
+  }
+
+  private int increment (Object key) {
+
+    int min = Integer.MAX_VALUE;
+
+    for (int row = 0; row < SKETCH_ROWS; row++) {
+      int s = slot (key, row);
+
+      if (this.sketch[s] < Integer.MAX_VALUE)
+	this.sketch[s] ++;
+
+      min = Math.min (min, this.sketch[s]);
+    }
+
+    //  Age the counts, so that terms that were popular long ago do not
+    //  keep out the terms that are popular now.
+
+    if (++ this.sketchAdditions >= this.sketchResetAt) {
+      for (int s = 0; s < this.sketch.length; s++)
+	this.sketch[s] >>>= 1;
+
+      this.sketchAdditions /= 2;
+    }
+
+    return min;
+  }
+
+  //  Empty the cache if the index changed since lists were cached.
+
+  private void checkReader (IndexReader reader) {
+
+    Object key = reader.getCombinedCoreAndDeletesKey ();
+
+    if (key == this.readerKey)
+      return;
+
+    this.lists.clear ();
+    this.usedBytes = 0;
+    Arrays.fill (this.sketch, 0);
+    this.sketchAdditions = 0;
+    this.readerKey = key;
+  }
+
+  /**
+   *  Describe the cache's contents and activity, e.g., for the end of a
+   *  batch.
+   *  @return One line with the cache's size and counters.
+   */
+  public synchronized String report() {
+    return "Inverted list cache:  " + this.lists.size () + " lists, " +
+      (this.usedBytes / 1024L) + " KB, " + this.hits.get () + " hits, " +
+      this.misses.get () + " misses, " + this.evictions.get () +
+      " evictions, " + this.rejections.get () + " rejections\n";
+  }
+}
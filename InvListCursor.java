@@ -0,0 +1,67 @@
+/**
+ *  An InvListCursor walks an inverted list one document at a time,
+ *  in docid order.  It is the streaming view of an InvList:  query
+ *  operators that only need docids and term frequencies (e.g., #SCORE
+ *  under BM25 or Indri) can use it without ever decoding positions,
+ *  and without the whole list being copied out of the index.
+ *
+ *  A new cursor is positioned before the first document; call nextDoc
+ *  or advance before using docID, freq or position.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+
+import org.apache.lucene.search.DocIdSetIterator;
+
+public abstract class InvListCursor {
+
+  /**
+   *  Returned by nextDoc and advance when the list is exhausted.
+   */
+  public static final int NO_MORE_DOCS = DocIdSetIterator.NO_MORE_DOCS;
+
+  /**
+   *  Get the current document id.
+   *  @return The internal document id, -1 before the first call to
+   *  nextDoc or advance, or NO_MORE_DOCS when the list is exhausted.
+   */
+  public abstract int docID();
+
+  /**
+   *  Move to the next document in the list.
+   *  @return The new internal document id, or NO_MORE_DOCS.
+   *  @throws IOException
+   */
+  public abstract int nextDoc() throws IOException;
+
+  /**
+   *  Move to the first document whose id is greater than or equal to
+   *  target.  The cursor never moves backwards.
+   *  @param target The internal document id to look for.
+   *  @return The new internal document id, or NO_MORE_DOCS.
+   *  @throws IOException
+   */
+  public abstract int advance(int target) throws IOException;
+
+  /**
+   *  Get the term frequency in the current document.
+   *  @return The document's term frequency, or 0 if the cursor is not
+   *  on a document (before the first call to nextDoc or advance, or
+   *  after the list is exhausted).
+   *  @throws IOException
+   */
+  public abstract int freq() throws IOException;
+
+  /**
+   *  Get the j'th position of the term in the current document.
+   *  Positions are decoded the first time they are requested for a
+   *  document, so callers that never ask for them do not pay for them.
+   *  @param j The index of the position, 0 &lt;= j &lt; freq().
+   *  @return The position.
+   *  @throws IOException
+   */
+  public abstract int position(int j) throws IOException;
+
+}
@@ -0,0 +1,407 @@
+/**
+ *  MappedPostings reads inverted lists from a postings file written by
+ *  PostingsExporter, instead of from Lucene.  The postings are
+ *  memory-mapped and decoded straight from the mapped buffers, so they
+ *  never live on the Java heap:  a cursor decodes one block of docids
+ *  and term frequencies at a time into small buffers of its own, and
+ *  the positions of a document only when they are requested.
+ *
+ *  Each list is a skip table followed by blocks of BLOCK_SIZE postings
+ *  (the last block may be shorter).  A block holds the docid gaps, then
+ *  the term frequencies, then each document's position gaps, all as
+ *  variable-length ints (7 bits per byte, low bits first, the high bit
+ *  set on every byte but the last).  The first docid gap of a block is
+ *  relative to the last docid of the previous block, so any block can
+ *  be decoded on its own.  The skip table has one entry per block:
+ *  int lastDoc, int docsStart and int positionsStart, the last two
+ *  relative to the start of the list.
+ *
+ *  The file is:
+ *
+ *    header:      int magic, int version, int maxDoc, int blockSize,
+ *                 long fingerprint
+ *    postings:    the lists
+ *    dictionary:  numTerms times:  field, term (each an unsigned short
+ *                 length and UTF-8 bytes), int df, int ctf, long start
+ *    trailer:     long dictionaryStart, int numTerms
+ *
+ *  The fingerprint identifies the version of the Lucene index the
+ *  postings were exported from (see IndexFingerprint), so that they are
+ *  not used after documents are deleted or the index is rebuilt.
+ *  Deleted documents are not in the lists, and are not counted in df
+ *  and ctf.  All numbers are big-endian.  The file is mapped in chunks of
+ *  CHUNK_SIZE bytes, and no list crosses a chunk boundary, so files
+ *  larger than 2 GB can be read.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+
+public class MappedPostings {
+
+  /**
+   *  The first int of a postings file.
+   */
+  public static final int MAGIC = 0x504f5354;
+
+  /**
+   *  The version of the file format.
+   */
+  public static final int VERSION = 2;
+
+  /**
+   *  The size of the mapped chunks.  A list is at most this long.
+   */
+  public static final long CHUNK_SIZE = 1L << 30;
+
+  /**
+   *  The length of the header, in bytes.
+   */
+  static final int HEADER_BYTES = 24;
+
+  /**
+   *  The length of a skip table entry, in bytes.
+   */
+  static final int SKIP_BYTES = 12;
+
+  /**
+   *  Where the inverted list of one term is.
+   */
+  public static class TermEntry {
+
+    /**
+     *  The number of documents that contain the term.
+     */
+    public final int df;
+
+    /**
+     *  The number of times the term occurs.
+     */
+    public final int ctf;
+
+    private final ByteBuffer chunk;
+    private final int start;
+
+    TermEntry (int df, int ctf, ByteBuffer chunk, int start) {
+      this.df = df;
+      this.ctf = ctf;
+      this.chunk = chunk;
+      this.start = start;
+    }
+  }
+
+  private File file;
+  private int maxDoc;
+  private int blockSize;
+  private long fingerprint;
+  private Map<Term, TermEntry> terms;
+
+  /**
+   *  Open a postings file.
+   *  @param file The file written by PostingsExporter.
+   *  @throws IOException
+   */
+  public MappedPostings(File file) throws IOException {
+
+    this.file = file;
+
+    RandomAccessFile raf = new RandomAccessFile (file, "r");
+
+    try {
+      FileChannel channel = raf.getChannel ();
+
+      //  The header and the trailer.
+
+      ByteBuffer header = ByteBuffer.allocate (HEADER_BYTES);
+      ByteBuffer trailer = ByteBuffer.allocate (12);
+
+      channel.read (header, 0);
+      channel.read (trailer, channel.size () - 12);
+      header.flip ();
+      trailer.flip ();
+
+      if (header.getInt () != MAGIC)
+	throw new IOException (file + " is not a postings file");
+
+      if (header.getInt () != VERSION)
+	throw new IOException (file + " was written by another version of " +
+			       "PostingsExporter; export it again");
+
+      this.maxDoc = header.getInt ();
+      this.blockSize = header.getInt ();
+      this.fingerprint = header.getLong ();
+
+      long dictionaryStart = trailer.getLong ();
+      int numTerms = trailer.getInt ();
+
+      //  Map the postings.  A mapping stays valid after the channel is
+      //  closed.
+
+      int numChunks = (int) ((dictionaryStart + CHUNK_SIZE - 1) / CHUNK_SIZE);
+      ByteBuffer[] chunks = new ByteBuffer[numChunks];
+
+      for (int c = 0; c < numChunks; c++) {
+	long from = c * CHUNK_SIZE;
+
+	chunks[c] = channel.map (FileChannel.MapMode.READ_ONLY, from,
+				 Math.min (CHUNK_SIZE, dictionaryStart - from));
+      }
+
+      //  Read the dictionary into memory.
+
+      DataInputStream dictionary = new DataInputStream (
+	new BufferedInputStream (Channels.newInputStream (
+	  channel.position (dictionaryStart))));
+
+      this.terms = new HashMap<Term, TermEntry>(2 * numTerms);
+
+      for (int t = 0; t < numTerms; t++) {
+	String field = readString (dictionary);
+	String text = readString (dictionary);
+	int df = dictionary.readInt ();
+	int ctf = dictionary.readInt ();
+	long start = dictionary.readLong ();
+
+	this.terms.put (new Term (field, text),
+			new TermEntry (df, ctf, chunks[(int) (start / CHUNK_SIZE)],
+				       (int) (start % CHUNK_SIZE)));
+      }
+    } finally {
+      raf.close ();
+    }
+  }
+
+  //  A string is an unsigned short length and that many UTF-8 bytes.
+
+  private static String readString (DataInputStream in) throws IOException {
+
+    byte[] bytes = new byte[in.readUnsignedShort ()];
+
+    in.readFully (bytes);
+    return new String (bytes, "UTF-8");
+  }
+
+  /**
+   *  Get the number of documents of the Lucene index the postings were
+   *  exported from.
+   *  @return The number of documents (IndexReader.maxDoc).
+   */
+  public int maxDoc() {
+    return this.maxDoc;
+  }
+
+  /**
+   *  Whether the postings were exported from this version of an index.
+   *  @param reader The index reader.
+   *  @return True if they were.
+   *  @throws IOException
+   */
+  public boolean describes(IndexReader reader) throws IOException {
+    return reader.maxDoc () == this.maxDoc &&
+      IndexFingerprint.of (reader) == this.fingerprint;
+  }
+
+  /**
+   *  Get a description of the postings file.
+   *  @return The description.
+   */
+  public String toString() {
+    return "MappedPostings(" + this.file + ", " + this.terms.size () +
+      " terms)";
+  }
+
+  /**
+   *  Find the inverted list of a term.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @return The term's entry, or null if the term does not occur.
+   */
+  public TermEntry entry(String termString, String fieldString) {
+    return this.terms.get (new Term (fieldString, termString));
+  }
+
+  /**
+   *  Get a cursor that walks an inverted list.
+   *  @param entry The term's entry.
+   *  @return A cursor positioned before the first document.
+   */
+  public InvListCursor cursor(TermEntry entry) {
+    return new MappedCursor (entry, this.blockSize);
+  }
+
+  //  A cursor that decodes a list from its mapped chunk.  Reads use
+  //  absolute offsets, so any number of cursors can share a chunk.
+
+  private static class MappedCursor extends InvListCursor {
+
+    private ByteBuffer chunk;
+    private int start;
+    private int df;
+    private int numBlocks;
+    private int blockSize;
+
+    //  The decoded block:  docids[0 .. count-1] and their tfs.  n is the
+    //  current document's index in the block.
+
+    private int block = -1;
+    private int[] docids;
+    private int[] tfs;
+    private int count = 0;
+    private int n = -1;
+    private int doc = -1;
+
+    //  The next undecoded positions are those of document posDoc of the
+    //  block, at offset posPointer of the chunk.
+
+    private int posPointer;
+    private int posDoc;
+    private int[] buffer = new int[16];
+    private int bufferedDoc = -1;
+
+    //  The offset of the next byte to decode.
+
+    private int p;
+
+    MappedCursor (TermEntry entry, int blockSize) {
+      this.chunk = entry.chunk;
+      this.start = entry.start;
+      this.df = entry.df;
+      this.blockSize = blockSize;
+      this.numBlocks = (entry.df + blockSize - 1) / blockSize;
+      this.docids = new int[Math.min (blockSize, entry.df)];
+      this.tfs = new int[this.docids.length];
+    }
+
+    private int readVInt () {
+      byte b = chunk.get (p++);
+      int v = b & 0x7f;
+
+      for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+	b = chunk.get (p++);
+	v |= (b & 0x7f) << shift;
+      }
+
+      return v;
+    }
+
+    private int lastDoc (int b) {
+      return chunk.getInt (start + b * SKIP_BYTES);
+    }
+
+    //  Decode the docids and tfs of a block.
+
+    private void loadBlock (int b) {
+
+      int entry = start + b * SKIP_BYTES;
+
+      block = b;
+      count = Math.min (blockSize, df - b * blockSize);
+      p = start + chunk.getInt (entry + 4);
+      posPointer = start + chunk.getInt (entry + 8);
+      posDoc = 0;
+
+      int d = (b == 0) ? -1 : lastDoc (b - 1);
+
+      for (int i = 0; i < count; i++)
+	docids[i] = (d += readVInt ());
+
+      for (int i = 0; i < count; i++)
+	tfs[i] = readVInt ();
+
+      n = -1;
+    }
+
+    public int docID () {
+      return doc;
+    }
+
+    public int nextDoc () {
+
+      if (doc == NO_MORE_DOCS)
+	return doc;
+
+      if (++ n >= count) {
+	if (block + 1 == numBlocks)
+	  return (doc = NO_MORE_DOCS);
+	loadBlock (block + 1);
+	n = 0;
+      }
+
+      return (doc = docids[n]);
+    }
+
+    public int advance (int target) {
+
+      if (doc >= target)
+	return doc;
+
+      //  Use the skip table to find the first block that can hold the
+      //  target, unless it is the current block.
+
+      if (block < 0 || docids[count - 1] < target) {
+	int lo = block, hi = numBlocks;	// lastDoc (lo) < target <= lastDoc (hi)
+
+	while (hi - lo > 1) {
+	  int mid = (lo + hi) >>> 1;
+
+	  if (lastDoc (mid) < target)
+	    lo = mid;
+	  else
+	    hi = mid;
+	}
+
+	if (hi == numBlocks)
+	  return (doc = NO_MORE_DOCS);
+
+	loadBlock (hi);
+      }
+
+      do
+	n ++;
+      while (docids[n] < target);
+
+      return (doc = docids[n]);
+    }
+
+    public int freq () {
+      return (doc >= 0 && doc != NO_MORE_DOCS) ? tfs[n] : 0;
+    }
+
+    public int position (int j) {
+
+      if (bufferedDoc != doc) {
+
+	//  Skip the positions of the documents before this one.
+
+	p = posPointer;
+
+	for (; posDoc < n; posDoc++)
+	  for (int i = 0; i < tfs[posDoc]; i++)
+	    while ((chunk.get (p++) & 0x80) != 0)
+	      ;
+
+	int tf = tfs[n];
+
+	if (tf > buffer.length)
+	  buffer = new int[Math.max (tf, 2 * buffer.length)];
+
+	int pos = 0;
+
+	for (int i = 0; i < tf; i++)
+	  buffer[i] = (pos += readVInt ());
+
+	posPointer = p;
+	posDoc = n + 1;
+	bufferedDoc = doc;
+      }
+
+      return buffer[j];
+    }
+  }
+}
@@ -0,0 +1,345 @@
+/**
+ *  PostingsExporter is an offline tool that copies the inverted lists
+ *  of a Lucene index into a postings file that MappedPostings reads
+ *  (see MappedPostings for the format).  Every term of every indexed
+ *  field with positions is exported; deleted documents are left out,
+ *  and are not counted in df and ctf, as InvList does not count them.
+ *
+ *  Usage:  java PostingsExporter parameterFile
+ *
+ *  The parameter file uses the same format as QryEval's.  It needs
+ *  indexPath and postingsPath (the file to write).
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.*;
+
+public class PostingsExporter {
+
+  static String usage = "Usage:  java PostingsExporter paramFile\n\n";
+
+  /**
+   *  The number of postings in a block.
+   */
+  public static final int BLOCK_SIZE = 128;
+
+  /**
+   *  Export the postings of an index.
+   *  @param args The name of the parameter file.
+   *  @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+
+    if (args.length < 1) {
+      System.err.println (usage);
+      System.exit (1);
+    }
+
+    Map<String, String> params = QryEval.readParameters (args[0]);
+
+    if (! params.containsKey ("indexPath") ||
+	! params.containsKey ("postingsPath")) {
+      System.err.println ("Error: Parameters were missing.");
+      System.exit (1);
+    }
+
+    IndexReader reader = DirectoryReader.open (
+      FSDirectory.open (new File (params.get ("indexPath"))));
+
+    long start = System.currentTimeMillis ();
+    File out = new File (params.get ("postingsPath"));
+
+    long bytes = export (reader, out);
+
+    System.out.println ("Wrote " + bytes + " bytes to " + out + " in " +
+			(System.currentTimeMillis () - start) + " ms");
+    reader.close ();
+  }
+
+  /**
+   *  Write the postings file of a Lucene index.
+   *  @param reader The Lucene index.
+   *  @param out The file to write.
+   *  @return The length of the file.
+   *  @throws IOException
+   */
+  public static long export(IndexReader reader, File out) throws IOException {
+
+    ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream ();
+    DataOutputStream dictionary = new DataOutputStream (dictionaryBytes);
+    CountingOutputStream counter = new CountingOutputStream (
+      new BufferedOutputStream (new FileOutputStream (out)));
+    DataOutputStream postings = new DataOutputStream (counter);
+    int numTerms = 0;
+
+    try {
+      postings.writeInt (MappedPostings.MAGIC);
+      postings.writeInt (MappedPostings.VERSION);
+      postings.writeInt (reader.maxDoc ());
+      postings.writeInt (BLOCK_SIZE);
+      postings.writeLong (IndexFingerprint.of (reader));
+
+      FieldInfos fieldInfos = MultiFields.getMergedFieldInfos (reader);
+      Fields fields = MultiFields.getFields (reader);
+      Bits liveDocs = MultiFields.getLiveDocs (reader);
+      ListEncoder list = new ListEncoder ();
+      DocsAndPositionsEnum docs = null;
+
+      for (String field : (fields == null) ? Collections.<String>emptyList () : fields) {
+	FieldInfo info = fieldInfos.fieldInfo (field);
+
+	if (info == null || ! info.isIndexed () ||
+	    info.getIndexOptions ().compareTo (
+	      FieldInfo.IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) < 0)
+	  continue;
+
+	TermsEnum termsEnum = fields.terms (field).iterator (null);
+	BytesRef text;
+
+	while ((text = termsEnum.next ()) != null) {
+
+	  docs = termsEnum.docsAndPositions (liveDocs, docs);
+	  list.reset ();
+
+	  while (docs.nextDoc () != DocIdSetIterator.NO_MORE_DOCS)
+	    list.add (docs);
+
+	  if (list.df == 0)
+	    continue;
+
+	  //  InvList keeps ctf in an int.
+
+	  if (list.ctf > Integer.MAX_VALUE)
+	    throw new IOException ("The ctf of " + field + ":" +
+				   text.utf8ToString () + " is too large");
+
+	  byte[] bytes = list.finish ();
+
+	  if (bytes.length > MappedPostings.CHUNK_SIZE)
+	    throw new IOException ("The postings of " + field + ":" +
+				   text.utf8ToString () + " are too long");
+
+	  //  A list never crosses a chunk boundary.
+
+	  long offset = counter.count;
+
+	  if (offset / MappedPostings.CHUNK_SIZE !=
+	      (offset + bytes.length - 1) / MappedPostings.CHUNK_SIZE) {
+	    long next = (offset / MappedPostings.CHUNK_SIZE + 1) *
+	      MappedPostings.CHUNK_SIZE;
+
+	    while (counter.count < next)
+	      postings.writeByte (0);
+
+	    offset = next;
+	  }
+
+	  postings.write (bytes);
+
+	  writeString (dictionary, field);
+	  writeString (dictionary, text.utf8ToString ());
+	  dictionary.writeInt (list.df);
+	  dictionary.writeInt ((int) list.ctf);
+	  dictionary.writeLong (offset);
+	  numTerms ++;
+	}
+      }
+
+      long dictionaryStart = counter.count;
+
+      dictionary.flush ();
+      dictionaryBytes.writeTo (postings);
+      postings.writeLong (dictionaryStart);
+      postings.writeInt (numTerms);
+    } finally {
+      postings.close ();
+    }
+
+    return counter.count;
+  }
+
+  //  A string is an unsigned short length and that many UTF-8 bytes.
+
+  private static void writeString (DataOutputStream out, String s)
+    throws IOException {
+
+    byte[] bytes = s.getBytes ("UTF-8");
+
+    out.writeShort (bytes.length);
+    out.write (bytes);
+  }
+
+  //  Encodes the postings of one term:  the skip table, then the blocks.
+
+  private static class ListEncoder {
+
+    int df;
+    long ctf;
+
+    private int lastDoc;
+    private int[] docGaps = new int[BLOCK_SIZE];
+    private int[] tfs = new int[BLOCK_SIZE];
+    private int count;
+
+    private Bytes positions = new Bytes ();
+    private Bytes blocks = new Bytes ();
+    private Bytes skips = new Bytes ();
+
+    void reset () {
+      df = 0;
+      ctf = 0;
+      lastDoc = -1;
+      count = 0;
+      positions.size = 0;
+      blocks.size = 0;
+      skips.size = 0;
+    }
+
+    void add (DocsAndPositionsEnum docs) throws IOException {
+
+      int doc = docs.docID ();
+      int tf = docs.freq ();
+      int last = 0;
+
+      docGaps[count] = doc - lastDoc;
+      tfs[count] = tf;
+
+      for (int j = 0; j < tf; j++) {
+	int pos = docs.nextPosition ();
+
+	positions.writeVInt (pos - last);
+	last = pos;
+      }
+
+      lastDoc = doc;
+      df ++;
+      ctf += tf;
+
+      if (++ count == BLOCK_SIZE)
+	flushBlock ();
+    }
+
+    //  Append the buffered block, and its skip entry.  Offsets are
+    //  relative to the start of the blocks until finish adds the
+    //  length of the skip table.
+
+    private void flushBlock () {
+
+      if (count == 0)
+	return;
+
+      skips.writeInt (lastDoc);
+      skips.writeInt (blocks.size);
+
+      for (int i = 0; i < count; i++)
+	blocks.writeVInt (docGaps[i]);
+
+      for (int i = 0; i < count; i++)
+	blocks.writeVInt (tfs[i]);
+
+      skips.writeInt (blocks.size);
+      blocks.write (positions.bytes, positions.size);
+
+      positions.size = 0;
+      count = 0;
+    }
+
+    //  Get the encoded list.
+
+    byte[] finish () {
+
+      flushBlock ();
+
+      int skipBytes = skips.size;
+      byte[] bytes = new byte[skipBytes + blocks.size];
+
+      System.arraycopy (skips.bytes, 0, bytes, 0, skipBytes);
+      System.arraycopy (blocks.bytes, 0, bytes, skipBytes, blocks.size);
+
+      //  Make the block offsets relative to the start of the list.
+
+      for (int e = 0; e < skipBytes; e += MappedPostings.SKIP_BYTES)
+	for (int k = 4; k <= 8; k += 4)
+	  putInt (bytes, e + k, getInt (bytes, e + k) + skipBytes);
+
+      return bytes;
+    }
+  }
+
+  private static int getInt (byte[] b, int i) {
+    return ((b[i] & 0xff) << 24) | ((b[i+1] & 0xff) << 16) |
+      ((b[i+2] & 0xff) << 8) | (b[i+3] & 0xff);
+  }
+
+  private static void putInt (byte[] b, int i, int v) {
+    b[i] = (byte) (v >>> 24);
+    b[i+1] = (byte) (v >>> 16);
+    b[i+2] = (byte) (v >>> 8);
+    b[i+3] = (byte) v;
+  }
+
+  //  A growable byte buffer.
+
+  private static class Bytes {
+
+    byte[] bytes = new byte[1024];
+    int size = 0;
+
+    private void ensure (int n) {
+      if (size + n > bytes.length)
+	bytes = Arrays.copyOf (bytes, Math.max (size + n, 2 * bytes.length));
+    }
+
+    void writeVInt (int v) {
+      ensure (5);
+
+      while ((v & ~0x7f) != 0) {
+	bytes[size++] = (byte) ((v & 0x7f) | 0x80);
+	v >>>= 7;
+      }
+
+      bytes[size++] = (byte) v;
+    }
+
+    void writeInt (int v) {
+      ensure (4);
+      putInt (bytes, size, v);
+      size += 4;
+    }
+
+    void write (byte[] b, int n) {
+      ensure (n);
+      System.arraycopy (b, 0, bytes, size, n);
+      size += n;
+    }
+  }
+
+  //  An output stream that counts the bytes written to it.  (A
+  //  DataOutputStream's count is an int.)
+
+  private static class CountingOutputStream extends FilterOutputStream {
+
+    long count = 0;
+
+    CountingOutputStream (OutputStream out) {
+      super (out);
+    }
+
+    public void write (int b) throws IOException {
+      out.write (b);
+      count ++;
+    }
+
+    public void write (byte[] b, int off, int len) throws IOException {
+      out.write (b, off, len);
+      count += len;
+    }
+  }
+}
@@ -11,6 +11,8 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.lucene.analysis.Analyzer.TokenStreamComponents;
@@ -31,10 +33,14 @@ public class QryEval {
 	// The index file reader is accessible via a global variable. This
 	// isn't great programming style, but the alternative is for every
 	// query operator to store or pass this value, which creates its
-	// own headaches.
-	static Qryop finalQuery;
+	// own headaches. These are set before any query is evaluated and only
+	// read afterwards, so queries can be evaluated concurrently.
 	public static IndexReader READER;
 	public static DocLengthStore dls;
+	public static CollectionStats stats;
+	public static QueryResultCache resultCache;
+	public static InvListCache invLists;
+	public static MappedPostings postings;
 
 	// Create and configure an English analyzer that will be used for
 	// query parsing.
@@ -47,27 +53,6 @@ public class QryEval {
 		analyzer.setStemmer(EnglishAnalyzerConfigurable.StemmerType.KSTEM);
 	}
 
-	public static class scoreSort implements
-			Comparator<ScoreList.ScoreListEntry> {
-		public int compare(ScoreList.ScoreListEntry o1,
-				ScoreList.ScoreListEntry o2) {
-			try {
-				if (o1.getScore() < o2.getScore())
-					return -1;
-				else if (o1.getScore() > o2.getScore())
-					return 1;
-				else if (o1.getScore() == o2.getScore()) {
-					return getExternalDocid(o2.getDocID()).compareToIgnoreCase(
-							getExternalDocid(o1.getDocID()));
-				} else
-					return 0;
-			} catch (Exception e) {
-				System.out.println("Execption while sorting..");
-				return 0;
-			}
-		}
-	}
-	
 	public static class scoreSortModified implements
 	Comparator<scoreArray> {
 public int compare(scoreArray o1,
@@ -98,6 +83,13 @@ public int compare(scoreArray o1,
 			this.score = score;
 		}
 	}
+
+	// What evaluating one query of a batch produced: the lines it prints
+	// and its TREC output, kept so that they are written in input order.
+	static class QueryOutput {
+		StringBuilder messages = new StringBuilder();
+		String trecLines;
+	}
 	
 
 	/**
@@ -113,17 +105,7 @@ public int compare(scoreArray o1,
 			System.exit(1);
 		}
 
-		// read in the parameter file; one parameter per line in format of
-		// key=value
-		Map<String, String> params = new HashMap<String, String>();
-		Scanner scan = new Scanner(new File(args[0]));
-		String line = null;
-		do {
-			line = scan.nextLine();
-			String[] pair = line.split("=");
-			params.put(pair[0].trim(), pair[1].trim());
-		} while (scan.hasNext());
-		scan.close();
+		Map<String, String> params = readParameters(args[0]);
 
 		// parameters required for this example to run
 		if (!params.containsKey("indexPath")) {
@@ -135,7 +117,13 @@ public int compare(scoreArray o1,
 		READER = DirectoryReader.open(FSDirectory.open(new File(params
 				.get("indexPath"))));
 		
-		dls = new DocLengthStore(READER);
+		File lengthDir = null;
+		if (params.containsKey("docLengthMmapDir")) {
+			lengthDir = new File(params.get("docLengthMmapDir"));
+			lengthDir.mkdirs();
+		}
+		dls = new DocLengthStore(READER, lengthDir);
+		stats = new CollectionStats(READER);
 		
 		if (READER == null) {
 			System.err.println(usage);
@@ -160,26 +148,100 @@ public int compare(scoreArray o1,
 		if (params.containsKey("BM25:k_3")) {
 		 k3 = Double.parseDouble(params.get("BM25:k_3"));
 		}
+		// Indri:logSpace=true combines probabilities in log space (see
+		// RetreivalModelIndri.logSpace)
+		boolean logSpace = false;
+		if (params.containsKey("Indri:logSpace")) {
+			logSpace = Boolean.parseBoolean(params.get("Indri:logSpace").trim());
+		}
+		int resultCount = 100;
+		if (params.containsKey("resultCount")) {
+			resultCount = Integer.parseInt(params.get("resultCount"));
+		}
+		// BM25:pruning is exhaustive (the default), maxscore, or compare,
+		// which runs both and reports whether the rankings agree
+		String pruning = "exhaustive";
+		if (params.containsKey("BM25:pruning")) {
+			pruning = params.get("BM25:pruning").toLowerCase();
+		}
+		// evaluationStrategy is daat (the default), taat, which evaluates
+		// flat BM25 #SUM and ranked Boolean #OR queries term at a time,
+		// auto, which picks one per query (see TaatEvaluator), or saat,
+		// which evaluates BM25 #SUM queries of terms score at a time from
+		// the impact index impactIndexPath (see ImpactIndexBuilder);
+		// taat:accumulatorLimit caps the documents that get accumulators
+		// (0, the default, is no cap) and taat:limitStrategy is what to do
+		// at the cap, quit or continue (the default)
+		String evaluationStrategy = "daat";
+		if (params.containsKey("evaluationStrategy")) {
+			evaluationStrategy = params.get("evaluationStrategy").toLowerCase().trim();
+		}
+		int accumulatorLimit = 0;
+		if (params.containsKey("taat:accumulatorLimit")) {
+			accumulatorLimit = Integer.parseInt(params.get("taat:accumulatorLimit"));
+		}
+		boolean quitAtLimit = params.containsKey("taat:limitStrategy")
+				&& params.get("taat:limitStrategy").toLowerCase().trim().equals("quit");
+		if (!evaluationStrategy.equals("daat")
+				&& !evaluationStrategy.equals("taat")
+				&& !evaluationStrategy.equals("auto")
+				&& !evaluationStrategy.equals("saat")) {
+			fatalError("Error: Unknown evaluationStrategy " + evaluationStrategy);
+		}
+		final TaatEvaluator taat = (evaluationStrategy.equals("taat") || evaluationStrategy
+				.equals("auto")) ? new TaatEvaluator(
+				evaluationStrategy.equals("auto"), accumulatorLimit, quitAtLimit)
+				: null;
 		
 		if(params.get("retrievalAlgorithm").toLowerCase().trim().contains("unrankedboolean"))
 		{
 			ret = new RetrievalModelUnrankedBoolean();
 		}else if(params.get("retrievalAlgorithm").toLowerCase().trim().contains("tfidfrankedboolean")) {			
-			ret = new RetrievalModelTfidfRanked(READER.numDocs());
+			ret = new RetrievalModelTfidfRanked(stats.numDocs());
 		} else if(params.get("retrievalAlgorithm").toLowerCase().trim().contains("fieldrankedboolean")) {
-			ret = new RetrievalModelFieldWeightRank(READER.numDocs());
+			ret = new RetrievalModelFieldWeightRank(stats.numDocs());
 		} else if(params.get("retrievalAlgorithm").toLowerCase().trim().contains("cosinesimrankedboolean")) {
-			ret = new RetrievalModelCosineSimilarityRanked(READER.numDocs());
+			ret = new RetrievalModelCosineSimilarityRanked(stats.numDocs());
 		} else if(params.get("retrievalAlgorithm").toLowerCase().trim().contains("bm25")) {
 			ret = new RetrievalModelBM25(b,k1,k3);
 		}  else if(params.get("retrievalAlgorithm").toLowerCase().trim().contains("indri")) {
-			ret = new RetreivalModelIndri(mu, lambda);
+			ret = new RetreivalModelIndri(mu, lambda, logSpace);
 		} else if(params.get("retrievalAlgorithm").toLowerCase().trim().contains("rankedboolean")) {
 			ret = new RetrievalModelRankedBoolean();
 		} 
 		else {
 			ret = new RetrievalModelRankedBoolean();
 		}
+
+		// saat:postingsBudget and saat:timeBudgetMillis stop a score at a
+		// time query after that many postings or milliseconds, for
+		// anytime ranking (0, the default, is no limit)
+		SaatEvaluator saatEvaluator = null;
+		if (evaluationStrategy.equals("saat")) {
+			if (!params.containsKey("impactIndexPath")) {
+				fatalError("Error: evaluationStrategy=saat needs impactIndexPath");
+			}
+			ImpactIndex impacts = new ImpactIndex(new File(
+					params.get("impactIndexPath")));
+			if (!impacts.describes(READER)) {
+				fatalError("Error: " + impacts + " was not built from this version of "
+						+ params.get("indexPath"));
+			}
+			if (ret instanceof RetrievalModelBM25
+					&& !impacts.matches((RetrievalModelBM25) ret)) {
+				fatalError("Error: " + impacts + " was built with other BM25 parameters");
+			}
+			long postingsBudget = 0;
+			if (params.containsKey("saat:postingsBudget")) {
+				postingsBudget = Long.parseLong(params.get("saat:postingsBudget"));
+			}
+			long timeBudgetMillis = 0;
+			if (params.containsKey("saat:timeBudgetMillis")) {
+				timeBudgetMillis = Long.parseLong(params.get("saat:timeBudgetMillis"));
+			}
+			saatEvaluator = new SaatEvaluator(impacts, postingsBudget, timeBudgetMillis);
+		}
+		final SaatEvaluator saat = saatEvaluator;
 //		Qryop parsedQuery1 = parseQuery("lower #WINDOW/8(heart rate)",ret); 
 		//Qryop parsedQuery1 = parseQuery("#WAND(0.3 living 0.1 in 0.6 india)",ret);
 		//Qryop parsedQuery1 = parseQuery("#WSUM(0.3 #AND(brooks.title brothers.title) 0.7 #AND(brooks brothers clearance)) ",ret);
@@ -189,59 +251,132 @@ public int compare(scoreArray o1,
 //		QryResult result1 = parsedQuery1.evaluate(ret);
 		//int id1 = getInternalDocid("clueweb09-en0001-66-14262");
 		//int id2 = getInternalDocid("clueweb09-en0011-58-19607");
+		// threads is the number of queries evaluated at once (default 1);
+		// virtualThreads=true runs each query on a virtual thread when the
+		// JVM has them
+		int threads = 1;
+		if (params.containsKey("threads")) {
+			threads = Integer.parseInt(params.get("threads"));
+		}
+		boolean virtualThreads = params.containsKey("virtualThreads")
+				&& Boolean.parseBoolean(params.get("virtualThreads"));
+
+		// intraQueryThreads is how many arguments of one query may be
+		// evaluated concurrently on a shared fork-join pool of
+		// forkJoinThreads threads (0, the default, evaluates them serially)
+		int intraQueryThreads = 0;
+		if (params.containsKey("intraQueryThreads")) {
+			intraQueryThreads = Integer.parseInt(params.get("intraQueryThreads"));
+		}
+		int forkJoinThreads = Runtime.getRuntime().availableProcessors();
+		if (params.containsKey("forkJoinThreads")) {
+			forkJoinThreads = Integer.parseInt(params.get("forkJoinThreads"));
+		}
+
+		// docRanges splits the docid space of each query into that many
+		// ranges (at segment boundaries where possible) that are scored,
+		// and their top documents collected, as separate tasks
+		int docRanges = 1;
+		if (params.containsKey("docRanges")) {
+			docRanges = Integer.parseInt(params.get("docRanges"));
+		}
+		if (docRanges > 1 && intraQueryThreads == 0) {
+			intraQueryThreads = docRanges - 1;
+		}
+		final int[] rangeBounds = (docRanges > 1) ? QueryParallelism.docRanges(
+				READER, docRanges) : null;
+		final ForkJoinPool forkJoin = (intraQueryThreads > 0) ? new ForkJoinPool(
+				Math.max(forkJoinThreads, 1)) : null;
+		final int budget = intraQueryThreads;
+
+		// resultCacheSize is how many queries' results are kept, so that a
+		// repeated query is not evaluated again (0 turns the cache off)
+		int resultCacheSize = QueryResultCache.DEFAULT_SIZE;
+		if (params.containsKey("resultCacheSize")) {
+			resultCacheSize = Integer.parseInt(params.get("resultCacheSize"));
+		}
+		resultCache = (resultCacheSize > 0) ? new QueryResultCache(
+				resultCacheSize) : null;
+
+		// invListCacheMB is the memory used to keep the postings of terms
+		// that recur across queries (0 turns the cache off)
+		long invListCacheMB = InvListCache.DEFAULT_MB;
+		if (params.containsKey("invListCacheMB")) {
+			invListCacheMB = Long.parseLong(params.get("invListCacheMB"));
+		}
+		invLists = (invListCacheMB > 0) ? new InvListCache(
+				invListCacheMB * 1024L * 1024L) : null;
+
+		// postingsPath reads inverted lists from a memory-mapped copy of
+		// the index's postings (see PostingsExporter) instead of from Lucene
+		if (params.containsKey("postingsPath")) {
+			postings = new MappedPostings(new File(params.get("postingsPath")));
+			if (!postings.describes(READER)) {
+				fatalError("Error: " + postings + " was not exported from this version of "
+						+ params.get("indexPath"));
+			}
+		} else {
+			postings = null;
+		}
+
 		BufferedReader reader = null;
 		BufferedWriter writer = null;
+		ExecutorService pool = null;
 		
 		try {
 			reader = new BufferedReader(new FileReader(new File(
 					params.get("queryFilePath"))));
 			writer = new BufferedWriter(new FileWriter(new File(
 					params.get("trecEvalOutputPath"))));
-			long timerTicks = 0;
+			final AtomicLong timerTicks = new AtomicLong();
+			pool = newQueryPool(threads, virtualThreads);
+
+			// Submit every query, then print and write the results in input
+			// order as they become available. A query that fails is
+			// reported and skipped; the rest of the batch still runs.
+
+			List<String> queries = new ArrayList<String>();
+			List<Future<QueryOutput>> results = new ArrayList<Future<QueryOutput>>();
 			String q = null;
-			long millisStart = 0;
-			long millisEnd = 0;
-			int noOfQueries = 0;
 			while ((q = reader.readLine()) != null) {
-				String queryToken[] = q.split(":");
-				System.out.println(queryToken[1]);
-				Qryop parsedQuery = parseQuery(queryToken[1].trim(),ret);
-//				if(ret instanceof RetreivalModelIndri){
-//					parsedQuery = multipleRep(parsedQuery);
-//				}
-				millisStart = System.currentTimeMillis();
-				QryResult result = parsedQuery.evaluate(ret);
-				millisEnd = System.currentTimeMillis() ;				
-				timerTicks += (millisEnd - millisStart);				
-				noOfQueries++;
-				
-				List<scoreArray> finalresults = new ArrayList<scoreArray>();
-				
-				for (int i =0;i<result.docScores.scores.size();i++){
-					finalresults.add(new QryEval.scoreArray(getExternalDocid(result.docScores.getDocid(i)),result.docScores.getDocid(i),result.docScores.getDocidScore(i)));	
-				}
-				
-				Collections.sort(finalresults,
-							new QryEval.scoreSortModified());
-						
-				Collections.reverse(finalresults);
-				int j = 1;
-				
-				int maxLength = (finalresults.size() > 100) ? 100 : finalresults.size();
-				for (int i = 0; i < maxLength; i++) {
-					String resultLine = queryToken[0] + " Q0 "
-							+ finalresults.get(i).externalId
-							+ " " + j++ + " "
-							+  finalresults.get(i).score+ " run-1\n";
-					writer.write(resultLine);
+				final String query = q;
+				final RetrievalModel model = ret;
+				final int k = resultCount;
+				final String mode = pruning;
+				queries.add(query);
+				results.add(pool.submit(new Callable<QueryOutput>() {
+					public QueryOutput call() throws Exception {
+						QueryParallelism parallelism = (forkJoin == null) ? null
+								: new QueryParallelism(forkJoin, budget, rangeBounds);
+						QueryOutput output = new QueryOutput();
+						output.trecLines = evaluateQuery(query, model, k, mode,
+								taat, saat, parallelism, timerTicks,
+								output.messages);
+						return output;
+					}
+				}));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				QueryOutput output;
+				try {
+					output = results.get(i).get();
+				} catch (ExecutionException e) {
+					System.err.println("Error: query failed: " + queries.get(i));
+					e.getCause().printStackTrace();
+					continue;
 				}
-				
+				System.out.print(output.messages);
+				writer.write(output.trecLines);
 			}
-			System.out.println(timerTicks);
+			System.out.println(timerTicks.get());
 
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			if (pool != null)
+				pool.shutdownNow();
+			if (forkJoin != null)
+				forkJoin.shutdownNow();
 			try {
 				reader.close();
 				writer.close();
@@ -268,10 +403,233 @@ public int compare(scoreArray o1,
 		// Later HW assignments will use more RAM, so you want to be aware
 		// of how much memory your program uses.
 
+		System.out.print(dls.memoryReport());
+		if (resultCache != null)
+			System.out.print(resultCache.report());
+		if (invLists != null)
+			System.out.print(invLists.report());
 		printMemoryUsage(false);
 
 	}
 
+	/**
+	 * Read a parameter file.
+	 * 
+	 * @param path
+	 *            The file, with one parameter per line in the format
+	 *            key=value.
+	 * @return The parameters.
+	 * @throws IOException
+	 */
+	static Map<String, String> readParameters(String path) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		Scanner scan = new Scanner(new File(path));
+		String line = null;
+		do {
+			line = scan.nextLine();
+			String[] pair = line.split("=");
+			params.put(pair[0].trim(), pair[1].trim());
+		} while (scan.hasNext());
+		scan.close();
+		return params;
+	}
+
+	/**
+	 * Create the pool that evaluates the queries of a batch. Virtual threads
+	 * are used if they are asked for and the JVM has them (they are looked
+	 * up by reflection so that the code still runs on older JVMs);
+	 * otherwise it is a fixed pool of platform threads.
+	 * 
+	 * @param threads
+	 *            The number of platform threads.
+	 * @param virtualThreads
+	 *            Whether to use one virtual thread per query instead.
+	 * @return The pool.
+	 */
+	static ExecutorService newQueryPool(int threads, boolean virtualThreads) {
+		if (virtualThreads) {
+			try {
+				return (ExecutorService) Executors.class.getMethod(
+						"newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (Exception e) {
+				System.out.println("Virtual threads are not available; using "
+						+ threads + " threads");
+			}
+		}
+		return Executors.newFixedThreadPool(Math.max(threads, 1));
+	}
+
+	/**
+	 * Collect the top documents of a score list. If the query has docid
+	 * ranges, each range is collected as a separate task and the partial
+	 * top-k lists are merged.
+	 * 
+	 * @param scores
+	 *            The score list.
+	 * @param resultCount
+	 *            The number of results to keep.
+	 * @param parallelism
+	 *            The query's parallelism, or null.
+	 * @return The collector.
+	 * @throws IOException
+	 */
+	static TopKCollector collectTopK(final ScoreList scores,
+			final int resultCount, QueryParallelism parallelism)
+			throws IOException {
+
+		TopKCollector collector = new TopKCollector(resultCount);
+
+		if (parallelism == null || parallelism.rangeCount() < 2) {
+			collector.collect(scores);
+			return collector;
+		}
+
+		List<Callable<TopKCollector>> tasks = new ArrayList<Callable<TopKCollector>>();
+		for (int i = 0; i < parallelism.rangeCount(); i++) {
+			final int from = scores.advance(0, parallelism.rangeStart(i));
+			final int to = scores.advance(from, parallelism.rangeEnd(i));
+			tasks.add(new Callable<TopKCollector>() {
+				public TopKCollector call() {
+					TopKCollector part = new TopKCollector(resultCount);
+					part.collect(scores, from, to);
+					return part;
+				}
+			});
+		}
+		for (TopKCollector part : parallelism.invokeAll(tasks)) {
+			collector.merge(part, scores);
+		}
+		return collector;
+	}
+
+	/**
+	 * Parse and evaluate one line of the query file. Queries are evaluated
+	 * concurrently, so this must not touch any shared mutable state, and
+	 * it does not print: what it would print goes to messages, which the
+	 * caller prints in query order.
+	 * 
+	 * @param q
+	 *            The query line, "id:query".
+	 * @param ret
+	 *            The retrieval model.
+	 * @param resultCount
+	 *            The number of results to keep.
+	 * @param pruning
+	 *            The BM25:pruning mode.
+	 * @param taat
+	 *            Evaluates the queries it chooses term at a time, or null.
+	 * @param saat
+	 *            Evaluates the queries it chooses score at a time, or null.
+	 *            Queries that neither chooses are evaluated document at a
+	 *            time.
+	 * @param parallelism
+	 *            The query's budget for evaluating arguments concurrently,
+	 *            or null.
+	 * @param timerTicks
+	 *            Accumulates the time spent evaluating queries.
+	 * @param messages
+	 *            Receives the lines to print for the query.
+	 * @return The query's lines of TREC output.
+	 * @throws IOException
+	 */
+	static String evaluateQuery(String q, RetrievalModel ret, int resultCount,
+			String pruning, TaatEvaluator taat, SaatEvaluator saat,
+			QueryParallelism parallelism, AtomicLong timerTicks,
+			StringBuilder messages) throws IOException {
+
+		String queryToken[] = q.split(":");
+		messages.append(queryToken[1]).append('\n');
+		Qryop parsedQuery = parseQuery(queryToken[1].trim(),ret);
+		parsedQuery.setParallelism(parallelism);
+//		if(ret instanceof RetreivalModelIndri){
+//			parsedQuery = multipleRep(parsedQuery);
+//		}
+		boolean scoreAtATime = (saat != null) && saat.chooses(parsedQuery, ret);
+		boolean termAtATime = (taat != null) && taat.chooses(parsedQuery, ret);
+		boolean prunable = !scoreAtATime && !termAtATime
+				&& (parsedQuery instanceof QryopIlSum)
+				&& (ret instanceof RetrievalModelBM25);
+		if (prunable && !pruning.equals("exhaustive")) {
+			((QryopIlSum) parsedQuery).topK = resultCount;
+		}
+
+		// a repeated query is answered from the result cache, unless its
+		// evaluation is being compared or its results depend on timing
+		boolean cached = (resultCache != null) && !pruning.equals("compare")
+				&& !(scoreAtATime && saat.hasTimeBudget());
+		String evaluation = scoreAtATime ? saat.toString()
+				: termAtATime ? taat.toString() : "daat(pruning=" + pruning + ")";
+		String cacheKey = cached ? QueryResultCache.key(parsedQuery, ret,
+				evaluation, resultCount) : null;
+		List<scoreArray> finalresults = cached ? resultCache.get(READER,
+				cacheKey) : null;
+		if (finalresults != null) {
+			return trecLines(queryToken[0], finalresults);
+		}
+
+		long millisStart = System.currentTimeMillis();
+		QryResult result = scoreAtATime ? saat.evaluate(parsedQuery, ret)
+				: termAtATime ? taat.evaluate(parsedQuery, ret)
+				: parsedQuery.evaluate(ret);
+		long millisEnd = System.currentTimeMillis() ;				
+		timerTicks.addAndGet(millisEnd - millisStart);				
+		
+		// keep only the best resultCount documents; external ids
+		// are read just for those and for ties at the cutoff
+		TopKCollector collector = collectTopK(result.docScores, resultCount,
+				parallelism);
+		finalresults = collector.results(result.docScores);
+		if (cached) {
+			resultCache.put(READER, cacheKey, finalresults);
+		}
+
+		if (prunable && pruning.equals("compare")) {
+			((QryopIlSum) parsedQuery).topK = 0;
+			long exhaustiveStart = System.currentTimeMillis();
+			QryResult exhaustive = parsedQuery.evaluate(ret);
+			long exhaustiveMillis = System.currentTimeMillis() - exhaustiveStart;
+			TopKCollector exhaustiveCollector = new TopKCollector(resultCount);
+			exhaustiveCollector.collect(exhaustive.docScores);
+			List<scoreArray> expected = exhaustiveCollector.results(exhaustive.docScores);
+
+			boolean identical = (expected.size() == finalresults.size());
+			for (int i = 0; identical && i < expected.size(); i++) {
+				identical = (expected.get(i).docId == finalresults.get(i).docId)
+						&& (expected.get(i).score == finalresults.get(i).score);
+			}
+			messages.append("maxscore: " + (millisEnd - millisStart)
+					+ " ms, " + result.docScores.size() + " docs scored; exhaustive: "
+					+ exhaustiveMillis + " ms, " + exhaustive.docScores.size()
+					+ " docs scored; rankings " + (identical ? "identical" : "DIFFER")
+					+ "\n");
+		}
+
+		return trecLines(queryToken[0], finalresults);
+	}
+
+	/**
+	 * Format the results of a query as TREC output.
+	 * 
+	 * @param queryId
+	 *            The query's id.
+	 * @param finalresults
+	 *            The results, best first.
+	 * @return The query's lines of TREC output.
+	 */
+	static String trecLines(String queryId, List<scoreArray> finalresults) {
+		StringBuilder lines = new StringBuilder();
+		int j = 1;
+		
+		for (int i = 0; i < finalresults.size(); i++) {
+			String resultLine = queryId + " Q0 "
+					+ finalresults.get(i).externalId
+					+ " " + j++ + " "
+					+  finalresults.get(i).score+ " run-1\n";
+			lines.append(resultLine);
+		}
+		return lines.toString();
+	}
+
 	/**
 	 * Write an error message and exit. This can be done in other ways, but I
 	 * wanted something that takes just one statement so that it is easy to
@@ -596,10 +954,10 @@ public int compare(scoreArray o1,
 			throws IOException {
 
 		System.out.println(queryName + ":  ");
-		if (result.docScores.scores.size() < 1) {
+		if (result.docScores.size() < 1) {
 			System.out.println("\tNo results.");
 		} else {
-			for (int i = 0; i < result.docScores.scores.size(); i++) {
+			for (int i = 0; i < result.docScores.size(); i++) {
 				System.out.println("\t" + i + ":  "
 						+ getExternalDocid(result.docScores.getDocid(i)) + ", "
 						+ result.docScores.getDocidScore(i));
@@ -693,9 +1051,7 @@ public int compare(scoreArray o1,
 			}else {
 				//its not recursive check for that
 				temp = temp.args.get(0);
-				Qryop newop = multipleRep(temp);
-				
-				finalQuery.add(newop);
+				multipleRep(temp);
 			}
 			
 		}
@@ -22,6 +22,7 @@ public abstract class Qryop {
     protected InvList invList;		// A qry arg's inverted list (if any)
     protected int nextDoc;		// The next document to examine
     protected int nextNDoc;		// The next document in skip list
+    protected QryopSlScore scorer;	// Scores the arg lazily (if any)
   };
   public double weight =0.0;
   //  Initially the query operator starts with no arguments and no
@@ -29,6 +30,11 @@ public abstract class Qryop {
 
   protected ArrayList<Qryop> args = new ArrayList<Qryop>();
   protected List<DaaTPtr> daatPtrs = new ArrayList<DaaTPtr>();
+
+  //  If not null, the arguments of this operator may be evaluated
+  //  concurrently, within the query's budget.
+
+  protected QueryParallelism parallelism = null;
   
   /**
    *  Appends an argument to the list of query operator arguments.  This
@@ -57,6 +63,50 @@ public abstract class Qryop {
    */
   public abstract QryResult evaluate(RetrievalModel r) throws IOException;
 
+  /**
+   *  Let this operator and every operator below it evaluate their
+   *  arguments concurrently.
+   *  @param p The query's parallelism budget, or null for serial
+   *  evaluation.
+   *  @return void
+   */
+  public void setParallelism (QueryParallelism p) {
+    this.parallelism = p;
+
+    for (int i=0; i<this.args.size(); i++)
+      this.args.get(i).setParallelism (p);
+  }
+
+  /**
+   *  Evaluate all of the query arguments, concurrently if this operator
+   *  has a parallelism budget.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param materialize If true, materialize the inverted list of each
+   *  result.
+   *  @return The results, in argument order.
+   *  @throws IOException
+   */
+  protected List<QryResult> evaluateArgs (RetrievalModel r,
+					  boolean materialize)
+    throws IOException {
+
+    if (this.parallelism != null)
+      return this.parallelism.evaluate (this.args, r, materialize);
+
+    List<QryResult> results = new ArrayList<QryResult>();
+
+    for (int i=0; i<this.args.size(); i++) {
+      QryResult result = this.args.get(i).evaluate(r);
+
+      if (materialize)
+	result.invertedList.materialize ();
+
+      results.add (result);
+    }
+
+    return results;
+  }
+
   /**
    *  Free this operator's DaaT pointers.
    *  @return void
@@ -23,9 +23,29 @@ public abstract class QryopIl extends Qryop {
    */
   public void allocDaaTPtrs (RetrievalModel r) throws IOException {
 
+    //  Operators on positions need the arrays, so the lists are
+    //  materialized.
+
+    allocDaaTPtrs (r, true);
+  }
+
+  /**
+   *  Use the specified retrieval model to evaluate the query arguments.
+   *  Define and return DaaT pointers that the query operator can use.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param materialize If false, the argument lists may be left in
+   *  streaming mode, for operators that only read them with cursors.
+   *  @return void
+   *  @throws IOException
+   */
+  public void allocDaaTPtrs (RetrievalModel r, boolean materialize)
+    throws IOException {
+
+    List<QryResult> results = evaluateArgs (r, materialize);
+
     for (int i=0; i<this.args.size(); i++) {
       DaaTPtr ptri = new DaaTPtr ();
-      ptri.invList = this.args.get(i).evaluate(r).invertedList;
+      ptri.invList = results.get(i).invertedList;
       ptri.scoreList = null;
       ptri.nextDoc = 0;
 	
@@ -33,4 +53,83 @@ public abstract class QryopIl extends Qryop {
     }
   }
 
+  /**
+   *  Move cursors to the first document at or after a candidate that
+   *  all of them contain.  Cursors leapfrog:  whenever one is past the
+   *  candidate, its document becomes the new candidate.
+   *  @param cursors The cursors.  Cursor 0 must be on the candidate.
+   *  @param doc The candidate document, usually cursors[0].docID().
+   *  @return The document, or NO_MORE_DOCS if there is none.
+   *  @throws IOException
+   */
+  protected static int nextCommonDoc (InvListCursor[] cursors, int doc)
+    throws IOException {
+
+    int a = 1;
+
+    while (doc != InvListCursor.NO_MORE_DOCS && a < cursors.length) {
+      int d = cursors[a].advance (doc);
+
+      if (d == doc)
+	a++;
+      else {
+	doc = cursors[0].advance (d);
+	a = 1;
+      }
+    }
+
+    return doc;
+  }
+
+  /**
+   *  Get the inverted list of this operator from the inverted list
+   *  cache, if an operator with the same signature computed it
+   *  earlier.
+   *  @return The result, or null if the list is not cached.
+   */
+  protected QryResult cachedResult () {
+
+    if (QryEval.invLists == null)
+      return null;
+
+    InvList list = QryEval.invLists.getComputed (this.toString ());
+
+    if (list == null)
+      return null;
+
+    QryResult result = new QryResult ();
+    result.invertedList = list;
+    return result;
+  }
+
+  /**
+   *  Get the number of postings and positions in the argument lists,
+   *  which is the work of combining them.  Call it after allocDaaTPtrs.
+   *  @return The cost.
+   */
+  protected long argumentCost () {
+
+    long cost = 0;
+
+    for (int i=0; i<this.daatPtrs.size(); i++)
+      cost += this.daatPtrs.get(i).invList.df + this.daatPtrs.get(i).invList.ctf;
+
+    return cost;
+  }
+
+  /**
+   *  Offer the inverted list of this operator to the inverted list
+   *  cache.  The list must not be modified afterwards.
+   *  @param result The result of evaluating this operator.
+   *  @param cost The work it took (see argumentCost).
+   *  @return The result.
+   */
+  protected QryResult cacheResult (QryResult result, long cost) {
+
+    if (QryEval.invLists != null)
+      QryEval.invLists.putComputed (this.toString (), result.invertedList, cost);
+
+    return result;
+  }
+
 }
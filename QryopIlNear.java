@@ -8,8 +8,6 @@ import java.text.SimpleDateFormat;
 public class QryopIlNear extends QryopIl {
 
 	int distance = 0;
-	static int cumtf = 0;
-	static int cumdf = 0;
 	/**
 	 * It is convenient for the constructor to accept a variable number of
 	 * arguments. Thus new QryopIlSyn (arg1, arg2, arg3, ...).
@@ -43,54 +41,52 @@ public class QryopIlNear extends QryopIl {
 	 */
 	public QryResult evaluate(RetrievalModel r) throws IOException {
 
-		// Initialization
+		// A phrase that recurs across queries may already be cached.
 
-		allocDaaTPtrs(r);	
+		QryResult cached = cachedResult();
+		if (cached != null)
+			return cached;
 
-		QryResult result = new QryResult();
-		result.invertedList.field = new String(
-				this.daatPtrs.get(0).invList.field);	
+		// Initialization. The arguments are read through cursors, so
+		// their lists are not materialized.
 
-			Vector<Vector<InvList.DocPosting>> positions = new Vector<Vector<InvList.DocPosting>>();
+		allocDaaTPtrs(r, false);
+		long cost = argumentCost();
 
-			for (int i = 0; i < this.daatPtrs.size(); i++) {
+		QryResult result = new QryResult();
+		result.invertedList.field = new String(
+				this.daatPtrs.get(0).invList.field);
 
-				positions.add(new Vector<InvList.DocPosting>(this.daatPtrs
-						.get(i).invList.postings));
-			}
-			int docFreq = 0;
-			Vector<InvList.DocPosting> finalTermVector = calculateDocScores(positions);
+		InvListCursor[] cursors = new InvListCursor[this.daatPtrs.size()];
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = this.daatPtrs.get(i).invList.cursor();
+		}
+		matchNear(cursors, result.invertedList);
 
-			if (finalTermVector.size() > 0) {
-				result.invertedList.postings = finalTermVector;
-				result.invertedList.df = cumdf;
-				result.invertedList.ctf = cumtf;						
-			}
-			
 		freeDaaTPtrs();
-		return result;
+		return cacheResult(result, cost);
 	}
 
 	public QryResult normalizeScores(QryResult result)
 	{
 		double mean = 0.0;
-	      for(int q =0;q<result.docScores.scores.size();q++)      {
-	    	  mean += result.docScores.scores.get(q).getScore();    	  
+	      for(int q =0;q<result.docScores.size();q++)      {
+	    	  mean += result.docScores.getDocidScore(q);    	  
 	      }
-	      mean = mean/result.docScores.scores.size();
+	      mean = mean/result.docScores.size();
 	      
 	      double standardDevn = 0.0;
-	      for(int q =0;q<result.docScores.scores.size();q++)      {
-	    	  standardDevn += (result.docScores.scores.get(q).getScore()-mean) * (result.docScores.scores.get(q).getScore()-mean);    	  
+	      for(int q =0;q<result.docScores.size();q++)      {
+	    	  standardDevn += (result.docScores.getDocidScore(q)-mean) * (result.docScores.getDocidScore(q)-mean);    	  
 	      }
-	      standardDevn = Math.sqrt(standardDevn/result.docScores.scores.size());
+	      standardDevn = Math.sqrt(standardDevn/result.docScores.size());
 	      
 	      ScoreList scorelist = new ScoreList();
 	      
-	      for(int q =0;q<result.docScores.scores.size();q++)      {
-	    	  scorelist.add(result.docScores.scores.get(q).getDocID(), 
-	    			  ((result.docScores.scores.get(q).getScore()-mean)/standardDevn) + 100);
-	    	  if(((result.docScores.scores.get(q).getScore()-mean)/standardDevn)+100 < 0)
+	      for(int q =0;q<result.docScores.size();q++)      {
+	    	  scorelist.add(result.docScores.getDocid(q), 
+	    			  ((result.docScores.getDocidScore(q)-mean)/standardDevn) + 100);
+	    	  if(((result.docScores.getDocidScore(q)-mean)/standardDevn)+100 < 0)
 	    	  {
 	    		  System.out.println("Negative score values");
 	    	  }
@@ -99,81 +95,81 @@ public class QryopIlNear extends QryopIl {
 	      result.docScores = scorelist;
 	      return result;
 	}
-	public Vector<InvList.DocPosting> calculateDocScores(
-			Vector<Vector<InvList.DocPosting>> termDistances) {
-		// Iterate over each query term in a single doc to find the near
-		// distance
-
-		Vector<InvList.DocPosting> baseTermList = termDistances.get(0);
-		Vector<InvList.DocPosting> compareTermList = new Vector<InvList.DocPosting>();
-		for (int j = 1; j < termDistances.size(); j++) {
-			Vector<InvList.DocPosting> intermediateResultList = new Vector<InvList.DocPosting>();
-			compareTermList = termDistances.get(j);
-			int outerIterLenComp = 0;
-			int outerIterLenBase = 0;
-			while (outerIterLenBase < baseTermList.size() && outerIterLenComp < compareTermList.size()) {
-				if (baseTermList.get(outerIterLenBase).docid < compareTermList
-						.get(outerIterLenComp).docid) {
-					outerIterLenBase++;
-				} else if (baseTermList.get(outerIterLenBase).docid > compareTermList
-						.get(outerIterLenComp).docid) {
-					outerIterLenComp++;
-				} else {
-					Vector<Integer> baselistPositions = baseTermList
-							.get(outerIterLenBase).positions;
-					Vector<Integer> comparelistPositions = compareTermList
-							.get(outerIterLenComp).positions;
-					List<Integer> matchingPositions = new ArrayList<Integer>();					
-					
-					int innerIterLenBase = 0;
-					int innerIterLenCompare = 0;
-
-					while (innerIterLenBase < baselistPositions.size() && innerIterLenCompare < comparelistPositions.size()) {
-						if ((comparelistPositions.get(innerIterLenCompare)
-								- baselistPositions.get(innerIterLenBase) <= this.distance)
-								&& (comparelistPositions
-										.get(innerIterLenCompare)
-										- baselistPositions
-												.get(innerIterLenBase) > 0)) {
-							matchingPositions.add(comparelistPositions
-									.get(innerIterLenCompare));
-							innerIterLenCompare++;
-							innerIterLenBase++;
-
-						}else if (comparelistPositions
-								.get(innerIterLenCompare) < baselistPositions
-								.get(innerIterLenBase))
-							innerIterLenCompare++;
-						else if (comparelistPositions.get(innerIterLenCompare) > baselistPositions
-								.get(innerIterLenBase))
-							innerIterLenBase++;
-						else {
-							innerIterLenCompare++;
-							innerIterLenBase++;
-						}
-
-					}
-					if (matchingPositions.size() > 0) {
-						InvList listResult = new InvList();
-						listResult.appendPosting(compareTermList.get(outerIterLenComp).docid, matchingPositions);	
-						//cumtf += listResult.ctf;
-						cumdf += listResult.df;
-						intermediateResultList.add(listResult.getPostings(0));
+	/**
+	 * Find the documents in which every argument occurs, in order, each
+	 * within distance positions after the previous one, and append them
+	 * to a list. The posting of a document holds the positions of the
+	 * last argument's matches.
+	 * 
+	 * All cursors advance together, one candidate document at a time.
+	 * Within a document, the matches of the first j arguments are kept
+	 * in a buffer and extended by argument j+1, so a long #NEAR chain
+	 * does not build intermediate lists. Each occurrence is matched at
+	 * most once, with the nearest occurrence that follows it within
+	 * the distance. The two buffers are reused for every document.
+	 * 
+	 * @param cursors
+	 *            A cursor for each argument, in query order.
+	 * @param out
+	 *            The list that matching documents are appended to.
+	 * @return void
+	 * @throws IOException
+	 */
+	void matchNear(InvListCursor[] cursors, InvList out) throws IOException {
+
+		int[] matches = new int[16];
+		int[] next = new int[16];
+		int doc = nextCommonDoc(cursors, cursors[0].nextDoc());
+
+		while (doc != InvListCursor.NO_MORE_DOCS) {
+
+			// Match positions, one argument after another.
+
+			int count = cursors[0].freq();
+			if (count > matches.length)
+				matches = new int[Math.max(count, 2 * matches.length)];
+			for (int j = 0; j < count; j++)
+				matches[j] = cursors[0].position(j);
+
+			for (int a = 1; a < cursors.length && count > 0; a++) {
+				InvListCursor c = cursors[a];
+				int tf = c.freq();
+				if (Math.min(count, tf) > next.length)
+					next = new int[Math.max(Math.min(count, tf), 2 * next.length)];
+
+				int m = 0;
+				int b = 0;
+				int k = 0;
+				while (b < count && k < tf) {
+					int gap = c.position(k) - matches[b];
+
+					if (gap > 0 && gap <= this.distance) {
+						next[m++] = c.position(k);
+						b++;
+						k++;
+					} else if (gap < 0)
+						k++;
+					else if (gap > 0)
+						b++;
+					else {
+						b++;
+						k++;
 					}
-					outerIterLenBase++;outerIterLenComp++;
 				}
+
+				int[] swap = matches;
+				matches = next;
+				next = swap;
+				count = m;
 			}
-			
-			 if (j == termDistances.size() - 1) { 
-				 return	 intermediateResultList; 
-			} else { 
-				baseTermList = intermediateResultList; }
-			
+
+			if (count > 0)
+				out.appendPosting(doc, matches, count);
+
+			doc = nextCommonDoc(cursors, cursors[0].nextDoc());
 		}
-		return null;
 	}
 
-	
 	/*
 	 * Return a string version of this query operator.
 	 * 
@@ -195,15 +191,15 @@ public class QryopIlNear extends QryopIl {
 
 		try {
 
-			for (int i = 0; i < result.docScores.scores.size(); i++) {
+			for (int i = 0; i < result.docScores.size(); i++) {
 
 				Vector<Vector<Integer>> termPosPtrs = new Vector<Vector<Integer>>(
 						this.args.size()); // List of distance vector(or term
 											// position in doc) of each query
 											// term
 
-				TermVector tvptr = new TermVector(result.docScores.scores
-						.get(i).getDocID(), "body");
+				TermVector tvptr = new TermVector(result.docScores
+						.getDocid(i), "body");
 				for (int k = 0; k < this.args.size(); k++) {
 					String queryText = this.args.get(k).toString();
 					if (queryText.contains("("))
@@ -1,13 +1,9 @@
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.Vector;
 
 
 public class QryopIlSum extends QryopSl {
@@ -16,6 +12,15 @@ public class QryopIlSum extends QryopSl {
 	long sumTotalTF = 0;
 	double avglen = 0.0;
 
+	/**
+	 * The number of results that will be kept, or 0 if every matching
+	 * document must be scored. QryEval sets it on the root #SUM of a BM25
+	 * query so that documents that cannot make the top k can be skipped.
+	 */
+	int topK = 0;
+
+	private static final double PRUNE_SLACK = 1e-10;
+
 	/**
 	 * It is convenient for the constructor to accept a variable number of
 	 * arguments. Thus new QryopIlSyn (arg1, arg2, arg3, ...).
@@ -49,21 +54,193 @@ public class QryopIlSum extends QryopSl {
 	 */
 	public QryResult evaluate(RetrievalModel r) throws IOException {
 
-		// Initialization
+		if (this.topK > 0 && r instanceof RetrievalModelBM25)
+			return (evaluateMaxScore(r));
+
+		// Initialization. Term arguments are scored as the union reaches
+		// them, so no score list is built for them.
 
-		allocDaaTPtrs(r);
+		allocDaaTPtrs(r, true);
 		QryResult result = new QryResult();
 
-		Set<ScoreList.ScoreListEntry> mergedSet = new HashSet<ScoreList.ScoreListEntry>();
-		for (int w = 0; w < this.args.size(); w++) {
-			List<ScoreList.ScoreListEntry> list1 = this.daatPtrs.get(w).scoreList.scores;
-			mergedSet.addAll(list1);
+		final double[] userwgt = queryTermWeights((RetrievalModelBM25) r);
+
+		// Each document is scored on its own, so the docid space can be
+		// split into ranges that are evaluated separately.
+
+		result.docScores = scoreRanges(new RangeScorer() {
+			public void score(int lo, int hi, ScoreList scores) throws IOException {
+
+				ScoreIteratorUnion union = scoreIteratorsOfDaaTPtrs(lo, hi);
+
+				while (union.nextDoc() != ScoreIteratorUnion.NO_MORE_DOCS) {
+					double docScore = 0.0;
+
+					for (int b = 0; b < daatPtrs.size(); b++) {
+						if (union.matches(b))
+							docScore += union.score(b) * userwgt[b];
+					}
+					scores.add(union.docID(), docScore);
+				}
+			}
+		});
+		freeDaaTPtrs();
+		return result;
+	}
+
+	/**
+	 * Evaluates the query operator with MaxScore dynamic pruning. Only the
+	 * best topK documents are needed, so a document is skipped as soon as
+	 * the upper bounds of the arguments it has not been scored on cannot
+	 * lift it to the lowest score of the current top k.
+	 * 
+	 * The arguments are ordered by upper bound. The low-bound arguments
+	 * whose bounds add up to less than the threshold are "non-essential":
+	 * a document that matches only them cannot make the top k, so
+	 * candidates come from the essential arguments only, and the
+	 * non-essential ones are advanced to a candidate only while it can
+	 * still make it. Every document that can enter the top k, including
+	 * ties at the threshold, gets exactly the score exhaustive evaluation
+	 * gives it, so the top k do not change.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return The documents that were fully scored, in docid order.
+	 * @throws IOException
+	 */
+	public QryResult evaluateMaxScore(RetrievalModel r) throws IOException {
+
+		RetrievalModelBM25 rm = (RetrievalModelBM25) r;
+		QryResult result = new QryResult();
+
+		for (int b = 0; b < this.args.size(); b++) {
+			if (!QryopSl.class.isInstance(this.args.get(b))) {
+				this.args.set(b, new QryopSlScore(this.args.get(b), this.args.get(b).weight));
+				this.args.get(b).parallelism = this.parallelism;
+			}
 		}
-		List<ScoreList.ScoreListEntry> mergedList = new ArrayList<ScoreList.ScoreListEntry>(
-				mergedSet);
-		Collections.sort(mergedList, new QryopSlOR.docSort());
-		int[] maxIter = new int[this.daatPtrs.size()];
-		int recentlyAddedDocid = -1;
+
+		double[] userwgt = queryTermWeights(rm);
+		int n = this.args.size();
+
+		// Sort the arguments by upper bound; cumBound[i] is the sum of the
+		// bounds of the i+1 arguments with the lowest bounds.
+
+		SumArgument[] byBound = new SumArgument[n];
+		for (int b = 0; b < n; b++)
+			byBound[b] = new SumArgument(this.args.get(b), b, userwgt[b], rm);
+
+		Arrays.sort(byBound, new Comparator<SumArgument>() {
+			public int compare(SumArgument a1, SumArgument a2) {
+				return Double.compare(a1.bound, a2.bound);
+			}
+		});
+
+		double[] cumBound = new double[n];
+		for (int i = 0; i < n; i++)
+			cumBound[i] = ((i > 0) ? cumBound[i - 1] : 0.0) + byBound[i].bound;
+
+		for (int i = 0; i < n; i++)
+			byBound[i].nextDoc();
+
+		TopKCollector collector = new TopKCollector(this.topK);
+		double threshold = Double.NEGATIVE_INFINITY;
+		int firstEssential = 0;
+
+		double[] termScores = new double[n];
+		boolean[] matched = new boolean[n];
+
+		int doc = firstDoc(byBound, firstEssential);
+
+		while (doc != InvListCursor.NO_MORE_DOCS) {
+
+			double partial = 0.0;
+			Arrays.fill(matched, false);
+
+			for (int i = firstEssential; i < n; i++) {
+				SumArgument arg = byBound[i];
+				if (arg.docID() == doc) {
+					termScores[arg.index] = arg.score();
+					matched[arg.index] = true;
+					partial += termScores[arg.index];
+					arg.nextDoc();
+				}
+			}
+
+			// Add the non-essential arguments, highest bound first, while
+			// the document can still reach the threshold.
+
+			boolean pruned = false;
+			for (int i = firstEssential - 1; i >= 0; i--) {
+				if (cannotReach(partial + cumBound[i], threshold)) {
+					pruned = true;
+					break;
+				}
+				SumArgument arg = byBound[i];
+				if (arg.docID() < doc)
+					arg.advance(doc);
+				if (arg.docID() == doc) {
+					termScores[arg.index] = arg.score();
+					matched[arg.index] = true;
+					partial += termScores[arg.index];
+				}
+			}
+
+			if (!pruned) {
+
+				// Sum in argument order, exactly as evaluate does.
+
+				double docScore = 0.0;
+				for (int b = 0; b < n; b++) {
+					if (matched[b])
+						docScore += termScores[b];
+				}
+				result.docScores.add(doc, docScore);
+				collector.collect(result.docScores.size() - 1, docScore);
+
+				if (collector.threshold() > threshold) {
+					threshold = collector.threshold();
+					while (firstEssential < n
+							&& cannotReach(cumBound[firstEssential], threshold))
+						firstEssential++;
+				}
+			}
+
+			doc = firstDoc(byBound, firstEssential);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Whether a score bound is certainly below a threshold. The bounds are
+	 * summed in a different order than the scores, so a tiny relative
+	 * slack keeps rounding from pruning a document that ties.
+	 */
+	private static boolean cannotReach(double bound, double threshold) {
+		return bound + PRUNE_SLACK * Math.abs(bound) < threshold;
+	}
+
+	/**
+	 * The smallest current docid of the arguments from index first on.
+	 */
+	private static int firstDoc(SumArgument[] args, int first) {
+		int doc = InvListCursor.NO_MORE_DOCS;
+		for (int i = first; i < args.length; i++)
+			doc = Math.min(doc, args[i].docID());
+		return doc;
+	}
+
+	/**
+	 * The BM25 query term weight of each argument, which depends on how
+	 * often the argument occurs in the query.
+	 * 
+	 * @param rm
+	 *            The BM25 retrieval model.
+	 * @return The weights, in argument order.
+	 */
+	double[] queryTermWeights(RetrievalModelBM25 rm) {
+
 		Map<String, Integer> termVector = new HashMap<String, Integer>();
 		for (int k = 0; k < this.args.size(); k++) {
 			String key = this.args.get(k).toString();
@@ -73,38 +250,71 @@ public class QryopIlSum extends QryopSl {
 				termVector.put(key, 1);
 
 		}
-		for (int a = 0; a < mergedList.size(); a++) {
-			for (int b = 0; b < this.daatPtrs.size(); b++) {
-								
-				DaaTPtr ptrb = this.daatPtrs.get(b);
-							
-				double qtf = termVector.get(this.args.get(b).toString());
-				
-				if (ptrb.scoreList.scores.size() <= maxIter[b]) {
-					continue;
-				}
-				
-				int docida = mergedList.get(a).getDocID();
-				int docidb = ptrb.scoreList.getDocid(maxIter[b]);
-				double userwgt = ((((RetrievalModelBM25)r).k3 + 1) * qtf) / (((RetrievalModelBM25)r).k3 + qtf);
-				
-				if (docida == docidb) {
-					if (docidb == recentlyAddedDocid) {
-						double prevScore = result.docScores.getDocidScore(a);
-						double newScore =  ptrb.scoreList.getDocidScore(maxIter[b])*userwgt;
-						result.docScores.updateDocidScore(a, docida, newScore+prevScore);
-					}else {
-						result.docScores.add(docida, ptrb.scoreList.getDocidScore(maxIter[b])*userwgt);
-						recentlyAddedDocid = docida;
-					}
-					maxIter[b]++;
+		double[] userwgt = new double[this.args.size()];
+		for (int b = 0; b < this.args.size(); b++) {
+			double qtf = termVector.get(this.args.get(b).toString());
+			userwgt[b] = ((rm.k3 + 1) * qtf) / (rm.k3 + qtf);
+		}
+		return userwgt;
+	}
+
+	/**
+	 * One argument of a #SUM under MaxScore. A #SCORE argument is scored
+	 * lazily through its score iterator, so postings of skipped documents
+	 * are never scored; its bound is the BM25 score of the largest
+	 * possible tf (ctf - df + 1) in a document of the smallest length.
+	 * Any other argument is evaluated to a score list and its bound is its
+	 * highest score. Scores and bounds include the query term weight.
+	 */
+	private static class SumArgument {
+
+		int index;
+		double weight;
+		double bound = 0.0;
+		ScoreIterator scores;
+
+		SumArgument(Qryop arg, int index, double weight, RetrievalModelBM25 rm)
+				throws IOException {
+
+			this.index = index;
+			this.weight = weight;
+
+			if (arg instanceof QryopSlScore) {
+				QryopSlScore scoreOp = (QryopSlScore) arg;
+				scoreOp.lazy = true;
+				scoreOp.evaluate(rm);
+				this.scores = scoreOp.scoreIterator(0, ScoreIterator.NO_MORE_DOCS);
+
+				InvList list = scoreOp.postings;
+				if (list.df > 0) {
+					int maxTf = Math.max(list.ctf - list.df + 1, 1);
+					double minLen = QryEval.dls.getMinDocLength(list.field);
+					this.bound = QryopSlScore.bm25Score(rm, scoreOp.idfwgt, maxTf,
+							minLen, scoreOp.avglen) * weight;
 				}
+			} else {
+				ScoreList list = arg.evaluate(rm).docScores;
+				for (int i = 0; i < list.size(); i++)
+					this.bound = Math.max(this.bound, list.getDocidScore(i) * weight);
+				this.scores = ScoreIterator.over(list, 0, ScoreIterator.NO_MORE_DOCS);
 			}
+		}
 
+		int docID() {
+			return this.scores.docID();
 		}
 
-		freeDaaTPtrs();
-		return result;
+		int nextDoc() throws IOException {
+			return this.scores.nextDoc();
+		}
+
+		int advance(int target) throws IOException {
+			return this.scores.advance(target);
+		}
+
+		double score() throws IOException {
+			return this.scores.score() * this.weight;
+		}
 	}
 
 	/*
@@ -42,75 +42,188 @@ public class QryopIlSyn extends QryopIl {
    */
   public QryResult evaluate(RetrievalModel r) throws IOException {
 
-    //  Initialization
+    //  A synonym set that recurs across queries may already be cached.
 
-    allocDaaTPtrs (r);
+    QryResult cached = cachedResult ();
+
+    if (cached != null)
+      return cached;
+
+    //  Initialization.  The arguments are read through cursors, so
+    //  their lists are not materialized.
+
+    allocDaaTPtrs (r, false);
     syntaxCheckArgResults (this.daatPtrs);
 
+    long cost = argumentCost ();
+
     QryResult result = new QryResult ();
     result.invertedList.field = new String (this.daatPtrs.get(0).invList.field);
 
-    //  Each pass of the loop adds 1 document to result until all of	
-    //  the inverted lists are depleted.  When a list is depleted, it
-    //  is removed from daatPtrs, so this loop runs until daatPtrs is empty.
+    InvListCursor[] cursors = new InvListCursor[this.daatPtrs.size()];
+
+    for (int i=0; i<cursors.length; i++)
+      cursors[i] = this.daatPtrs.get(i).invList.cursor ();
+
+    union (cursors, result.invertedList);
+
+    freeDaaTPtrs();
+
+    return cacheResult (result, cost);
+  }
+
+  /**
+   *  Append the union of the arguments to a list.  A min-heap of
+   *  arguments ordered by their current docid finds each next
+   *  document in O(log k) time for k arguments.  The positions of the
+   *  arguments that contain the document are already sorted, so they
+   *  are combined with a k-way merge (a second heap) into a reusable
+   *  buffer instead of being concatenated and sorted.
+   *  @param cursors A cursor for each argument.
+   *  @param out The list that the union is appended to.
+   *  @return void
+   *  @throws IOException
+   */
+  void union (InvListCursor[] cursors, InvList out) throws IOException {
+
+    int k = cursors.length;
+
+    //  docHeap holds the arguments that are not exhausted, by docid.
+    //  posHeap holds the arguments on the current document, by their
+    //  next position; next[a] is the index of that position.
+
+    int[] docHeap = new int[k];
+    int[] docKey = new int[k];
+    int docHeapSize = 0;
+
+    int[] posHeap = new int[k];
+    int[] posKey = new int[k];
+    int[] next = new int[k];
+
+    int[] matched = new int[k];
+    int[] positions = new int[16];
 
-    //  This implementation is intended to be clear.  A more efficient
-    //  implementation would combine loops and use merge-sort.
+    for (int a=0; a<k; a++)
+      if ((docKey[a] = cursors[a].nextDoc ()) != InvListCursor.NO_MORE_DOCS)
+	docHeap[docHeapSize++] = a;
 
-    while (this.daatPtrs.size() > 0) {
+    for (int h=docHeapSize/2-1; h>=0; h--)
+      siftDown (docHeap, docKey, h, docHeapSize);
 
-      int nextDocid = getSmallestCurrentDocid ();
+    while (docHeapSize > 0) {
+
+      //  Take every argument that is on the smallest docid.
+
+      int docid = docKey[docHeap[0]];
+      int m = 0;
+      int tf = 0;
+
+      while (docHeapSize > 0 && docKey[docHeap[0]] == docid) {
+	int a = docHeap[0];
+
+	matched[m++] = a;
+	tf += cursors[a].freq ();
+
+	docHeap[0] = docHeap[--docHeapSize];
+	siftDown (docHeap, docKey, 0, docHeapSize);
+      }
 
-      //  Create a new posting that is the union of the posting lists
-      //  that match the nextDocid.
+      if (tf > positions.length)
+	positions = new int[Math.max (tf, 2 * positions.length)];
 
-      List<Integer> positions = new ArrayList<Integer>();
+      //  Merge their positions.
 
-      for (int i=0; i<this.daatPtrs.size(); i++) {
-	DaaTPtr ptri = this.daatPtrs.get(i);
+      int count = 0;
 
-	if (ptri.invList.getDocid (ptri.nextDoc) == nextDocid) {
-	  positions.addAll (ptri.invList.postings.get(ptri.nextDoc).positions);
-	  ptri.nextDoc ++;
+      if (m == 1) {
+	for (int j=0; j<tf; j++)
+	  positions[count++] = cursors[matched[0]].position (j);
+      } else {
+	int posHeapSize = 0;
+
+	for (int i=0; i<m; i++) {
+	  int a = matched[i];
+
+	  next[a] = 0;
+	  posKey[a] = cursors[a].position (0);
+	  posHeap[posHeapSize++] = a;
+	}
+
+	for (int h=posHeapSize/2-1; h>=0; h--)
+	  siftDown (posHeap, posKey, h, posHeapSize);
+
+	while (posHeapSize > 0) {
+	  int a = posHeap[0];
+
+	  positions[count++] = posKey[a];
+
+	  if (++next[a] < cursors[a].freq ())
+	    posKey[a] = cursors[a].position (next[a]);
+	  else
+	    posHeap[0] = posHeap[--posHeapSize];
+
+	  siftDown (posHeap, posKey, 0, posHeapSize);
 	}
       }
 
-      Collections.sort (positions);
-      result.invertedList.appendPosting (nextDocid, positions);
+      out.appendPosting (docid, positions, count);
 
-      //  If a DaatPtr has reached the end of its list, remove it.
-      //  The loop is backwards so that removing an arg does not
-      //  interfere with iteration.
+      //  Move the arguments past this document.
 
-      for (int i=this.daatPtrs.size()-1; i>=0; i--) {
-	DaaTPtr ptri = this.daatPtrs.get(i);
+      for (int i=0; i<m; i++) {
+	int a = matched[i];
 
-	if (ptri.nextDoc >= ptri.invList.postings.size()) {
-	  this.daatPtrs.remove (i);
+	if ((docKey[a] = cursors[a].nextDoc ()) != InvListCursor.NO_MORE_DOCS) {
+	  docHeap[docHeapSize++] = a;
+	  siftUp (docHeap, docKey, docHeapSize - 1);
 	}
       }
     }
+  }
 
-    freeDaaTPtrs();
+  //  Heap maintenance.  A heap holds argument numbers, ordered by key.
+
+  private static void siftDown (int[] heap, int[] key, int h, int size) {
+
+    if (size == 0)
+      return;
+
+    int a = heap[h];
 
-    return result;
+    while (true) {
+      int child = 2 * h + 1;
+
+      if (child >= size)
+	break;
+
+      if ((child + 1 < size) && (key[heap[child + 1]] < key[heap[child]]))
+	child ++;
+
+      if (key[a] <= key[heap[child]])
+	break;
+
+      heap[h] = heap[child];
+      h = child;
+    }
+
+    heap[h] = a;
   }
 
-  /**
-   *  Return the smallest unexamined docid from the DaaTPtrs.
-   *  @return The smallest internal document id.
-   */
-  public int getSmallestCurrentDocid () {
+  private static void siftUp (int[] heap, int[] key, int h) {
 
-    int nextDocid = Integer.MAX_VALUE;
+    int a = heap[h];
 
-    for (int i=0; i<this.daatPtrs.size(); i++) {
-      DaaTPtr ptri = this.daatPtrs.get(i);
-      if (nextDocid > ptri.invList.getDocid (ptri.nextDoc))
-	nextDocid = ptri.invList.getDocid (ptri.nextDoc);
-      }
+    while (h > 0) {
+      int parent = (h - 1) >>> 1;
+
+      if (key[heap[parent]] <= key[a])
+	break;
+
+      heap[h] = heap[parent];
+      h = parent;
+    }
 
-    return (nextDocid);
+    heap[h] = a;
   }
 
   /**
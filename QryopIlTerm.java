@@ -80,14 +80,23 @@ public class QryopIlTerm extends QryopIl {
   }
 
   /**
-   *  Evaluates the query operator and returns the result.
+   *  Evaluates the query operator and returns the result.  The
+   *  inverted list is returned in streaming mode; it is only copied
+   *  out of the index if the consumer needs random access to it.
+   *  Lists of terms that recur across queries may come from the
+   *  inverted list cache instead, already materialized.  If QryEval
+   *  has exported postings, lists are read from them rather than from
+   *  Lucene (see MappedPostings).
    *  @param r A retrieval model that controls how the operator behaves.
    *  @return The result of evaluating the query.
    *  @throws IOException
    */
   public QryResult evaluate(RetrievalModel r) throws IOException {
     QryResult result = new QryResult();
-    result.invertedList = new InvList(this.term, this.field);
+    if (QryEval.invLists != null)
+      result.invertedList = QryEval.invLists.get(this.term, this.field);
+    else
+      result.invertedList = new InvList(this.term, this.field, false);
     return result;
   }
 
@@ -1,15 +1,11 @@
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Vector;
 
 
 public class QryopIlWindow extends QryopIl {
 
 	int distance = 0;
-	static int cumtf = 0;
-	static int cumdf = 0;
 	/**
 	 * It is convenient for the constructor to accept a variable number of
 	 * arguments. Thus new QryopIlSyn (arg1, arg2, arg3, ...).
@@ -43,107 +39,143 @@ public class QryopIlWindow extends QryopIl {
 	 */
 	public QryResult evaluate(RetrievalModel r) throws IOException {
 
-		// Initialization
+		// A phrase that recurs across queries may already be cached.
 
-		allocDaaTPtrs(r);	
+		QryResult cached = cachedResult();
+		if (cached != null)
+			return cached;
+
+		// Initialization. The arguments are read through cursors, so
+		// their lists are not materialized.
+
+		allocDaaTPtrs(r, false);
+		long cost = argumentCost();
 
 		QryResult result = new QryResult();
 		result.invertedList.field = new String(
-				this.daatPtrs.get(0).invList.field);	
+				this.daatPtrs.get(0).invList.field);
 
-			Vector<Vector<InvList.DocPosting>> positions = new Vector<Vector<InvList.DocPosting>>();
+		InvListCursor[] cursors = new InvListCursor[this.daatPtrs.size()];
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = this.daatPtrs.get(i).invList.cursor();
+		}
+		matchWindow(cursors, result.invertedList);
 
-			for (int i = 0; i < this.daatPtrs.size(); i++) {
+		freeDaaTPtrs();
+		return cacheResult(result, cost);
+	}
 
-				positions.add(new Vector<InvList.DocPosting>(this.daatPtrs
-						.get(i).invList.postings));
-			}
-			int docFreq = 0;
-			Vector<InvList.DocPosting> finalTermVector = calculateDocScores(positions);
+	/**
+	 * Find the documents in which every argument occurs, in any order,
+	 * inside a window of fewer than distance positions, and append them
+	 * to a list. The posting of a document holds the last position of
+	 * each window.
+	 * 
+	 * All cursors advance together, one candidate document at a time.
+	 * Within a document the position streams of the arguments are
+	 * merged with a min-heap that holds each argument's current
+	 * occurrence, while the largest current position is tracked. If the
+	 * smallest and largest are close enough, the current occurrences
+	 * form a window and all of them are consumed; otherwise the
+	 * smallest occurrence cannot be in any later window and only it is
+	 * consumed. A document costs O(positions * log(arguments)), and
+	 * the work arrays are reused for every document.
+	 * 
+	 * @param cursors
+	 *            A cursor for each argument.
+	 * @param out
+	 *            The list that matching documents are appended to.
+	 * @return void
+	 * @throws IOException
+	 */
+	void matchWindow(InvListCursor[] cursors, InvList out) throws IOException {
+
+		int n = cursors.length;
+		int[] heap = new int[n]; // argument numbers, by current position
+		int[] next = new int[n]; // index of each argument's current position
+		int[] pos = new int[n]; // each argument's current position
+		int[] tf = new int[n];
+		int[] matches = new int[16];
+		int doc = nextCommonDoc(cursors, cursors[0].nextDoc());
+
+		while (doc != InvListCursor.NO_MORE_DOCS) {
 
-			if (finalTermVector.size() > 0) {
-				result.invertedList.postings = finalTermVector;
-				result.invertedList.df = cumdf;
-				result.invertedList.ctf = cumtf;						
+			for (int a = 0; a < n; a++) {
+				tf[a] = cursors[a].freq();
+				next[a] = 0;
 			}
-			
-		freeDaaTPtrs();
-		return result;
-	}
-	public Vector<InvList.DocPosting> calculateDocScores(
-			Vector<Vector<InvList.DocPosting>> termDistances) {
-		// Iterate over each query term in a single doc to find the near
-		// distance
-
-		Vector<InvList.DocPosting> baseTermList = termDistances.get(0);
-		Vector<InvList.DocPosting> compareTermList = new Vector<InvList.DocPosting>();
-		for (int j = 1; j < termDistances.size(); j++) {
-			Vector<InvList.DocPosting> intermediateResultList = new Vector<InvList.DocPosting>();
-			compareTermList = termDistances.get(j);
-			int outerIterLenComp = 0;
-			int outerIterLenBase = 0;
-			while (outerIterLenBase < baseTermList.size() && outerIterLenComp < compareTermList.size()) {
-				if (baseTermList.get(outerIterLenBase).docid < compareTermList
-						.get(outerIterLenComp).docid) {
-					outerIterLenBase++;
-				} else if (baseTermList.get(outerIterLenBase).docid > compareTermList
-						.get(outerIterLenComp).docid) {
-					outerIterLenComp++;
-				} else {
-					Vector<Integer> baselistPositions = baseTermList
-							.get(outerIterLenBase).positions;
-					Vector<Integer> comparelistPositions = compareTermList
-							.get(outerIterLenComp).positions;
-					List<Integer> matchingPositions = new ArrayList<Integer>();					
-					
-					int innerIterLenBase = 0;
-					int innerIterLenCompare = 0;
-
-					while (innerIterLenBase < baselistPositions.size() && innerIterLenCompare < comparelistPositions.size()) {
-						if (Math.abs(comparelistPositions.get(innerIterLenCompare)
-								- baselistPositions.get(innerIterLenBase)) < this.distance) {
-							if(comparelistPositions.get(innerIterLenCompare) >= baselistPositions.get(innerIterLenBase)){
-								matchingPositions.add(comparelistPositions.get(innerIterLenCompare));
-							} else {
-								matchingPositions.add(Math.max(baselistPositions.get(innerIterLenBase),comparelistPositions.get(innerIterLenCompare)));
-							}
-							innerIterLenCompare++;
-							innerIterLenBase++;
-
-						}else if (comparelistPositions
-								.get(innerIterLenCompare) < baselistPositions
-								.get(innerIterLenBase))
-							innerIterLenCompare++;
-						else if (comparelistPositions.get(innerIterLenCompare) > baselistPositions
-								.get(innerIterLenBase))
-							innerIterLenBase++;
-						else {
-							innerIterLenCompare++;
-							innerIterLenBase++;
-						}
 
+			int count = 0;
+			boolean exhausted = false;
+
+			while (!exhausted) {
+
+				// Start a window with the current occurrence of every
+				// argument.
+
+				int max = Integer.MIN_VALUE;
+				for (int a = 0; a < n; a++) {
+					pos[a] = cursors[a].position(next[a]);
+					max = Math.max(max, pos[a]);
+					heap[a] = a;
+				}
+				for (int h = n / 2 - 1; h >= 0; h--)
+					siftDown(heap, pos, h, n);
+
+				// Slide the window until it is small enough.
+
+				while (max - pos[heap[0]] >= this.distance) {
+					int a = heap[0];
+					if (++next[a] == tf[a]) {
+						exhausted = true;
+						break;
 					}
-					if (matchingPositions.size() > 0) {
-						InvList listResult = new InvList();
-						listResult.appendPosting(compareTermList.get(outerIterLenComp).docid, matchingPositions);	
-//						cumtf += listResult.ctf;
-						cumdf += listResult.df;
-						intermediateResultList.add(listResult.getPostings(0));
-					}
-					outerIterLenBase++;outerIterLenComp++;
+					pos[a] = cursors[a].position(next[a]);
+					max = Math.max(max, pos[a]);
+					siftDown(heap, pos, 0, n);
+				}
+				if (exhausted)
+					break;
+
+				if (count == matches.length)
+					matches = Arrays.copyOf(matches, 2 * count);
+				matches[count++] = max;
+
+				// Consume the occurrences in the window.
+
+				for (int a = 0; a < n; a++) {
+					if (++next[a] == tf[a])
+						exhausted = true;
 				}
 			}
-			
-			 if (j == termDistances.size() - 1) { 
-				 return	 intermediateResultList; 
-			} else { 
-				baseTermList = intermediateResultList; }
-			
+
+			if (count > 0)
+				out.appendPosting(doc, matches, count);
+
+			doc = nextCommonDoc(cursors, cursors[0].nextDoc());
+		}
+	}
+
+	// Restore the heap order below heap[h], by position.
+
+	private static void siftDown(int[] heap, int[] pos, int h, int size) {
+
+		int a = heap[h];
+
+		while (true) {
+			int child = 2 * h + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && pos[heap[child + 1]] < pos[heap[child]])
+				child++;
+			if (pos[a] <= pos[heap[child]])
+				break;
+			heap[h] = heap[child];
+			h = child;
 		}
-		return null;
+		heap[h] = a;
 	}
 
-	
 	/*
 	 * Return a string version of this query operator.
 	 * 
@@ -11,6 +11,7 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 public abstract class QryopSl extends Qryop {
 
@@ -23,24 +24,166 @@ public abstract class QryopSl extends Qryop {
    *  @throws IOException
    */
   public void allocDaaTPtrs (RetrievalModel r) throws IOException {
+    allocDaaTPtrs (r, false);
+  }
+
+  /**
+   *  Use the specified retrieval model to evaluate the query arguments.
+   *  Define and return DaaT pointers that the query operator can use.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param lazy If true, #SCORE arguments that can score their
+   *  postings on the fly (see QryopSlScore.scoreIterator) do not build
+   *  score lists; their DaaTPtr has a scorer instead.  Operators that
+   *  ask for this read their arguments with scoreIteratorsOfDaaTPtrs.
+   *  @return void
+   *  @throws IOException
+   */
+  public void allocDaaTPtrs (RetrievalModel r, boolean lazy)
+    throws IOException {
 	  
     for (int i=0; i<this.args.size(); i++) {
 
       //  If this argument doesn't return ScoreLists, wrap it
       //  in a #SCORE operator.
       
-      if (! QryopSl.class.isInstance (this.args.get(i)))
+      if (! QryopSl.class.isInstance (this.args.get(i))) {
 	this.args.set(i, new QryopSlScore(this.args.get(i), this.args.get(i).weight));
+	this.args.get(i).parallelism = this.parallelism;
+      }
+
+      if (this.args.get(i) instanceof QryopSlScore)
+	((QryopSlScore) this.args.get(i)).lazy =
+	  lazy && QryopSlScore.scoresLazily (r);
+    }
+
+    List<QryResult> results = evaluateArgs (r, false);
 
+    for (int i=0; i<this.args.size(); i++) {
       DaaTPtr ptri = new DaaTPtr ();
       ptri.invList = null;
-      ptri.scoreList = this.args.get(i).evaluate(r).docScores;
+      ptri.scoreList = results.get(i).docScores;
       ptri.nextDoc = 0;     
+
+      if ((this.args.get(i) instanceof QryopSlScore) &&
+	  ((QryopSlScore) this.args.get(i)).lazy)
+	ptri.scorer = (QryopSlScore) this.args.get(i);
       
       this.daatPtrs.add (ptri);
     }
   }
 
+  /**
+   *  Get an iterator over the union of this operator's arguments in a
+   *  range of docids.  Arguments with a scorer are scored as the union
+   *  reaches their documents; the others are read from their score
+   *  lists.  The i'th iterator of the union is the i'th DaaTPtr's.
+   *  @param lo The first docid of the range.
+   *  @param hi The docid just past the end of the range.
+   *  @return The union.
+   *  @throws IOException
+   */
+  protected ScoreIteratorUnion scoreIteratorsOfDaaTPtrs (int lo, int hi)
+    throws IOException {
+
+    ScoreIterator[] iterators = new ScoreIterator[this.daatPtrs.size()];
+
+    for (int i=0; i<iterators.length; i++) {
+      DaaTPtr ptri = this.daatPtrs.get(i);
+
+      iterators[i] = (ptri.scorer != null) ?
+	ptri.scorer.scoreIterator (lo, hi) :
+	ScoreIterator.over (ptri.scoreList, lo, hi);
+    }
+
+    return new ScoreIteratorUnion (iterators);
+  }
+
+  /**
+   *  Get an iterator over the union of the score lists in this
+   *  operator's DaaTPtrs, in docid order.  The i'th list of the union is
+   *  the score list of the i'th DaaTPtr.
+   *  @return The union.
+   */
+  protected ScoreListUnion unionOfDaaTPtrs () {
+    return unionOfDaaTPtrs (0, ScoreListUnion.NO_MORE_DOCS);
+  }
+
+  /**
+   *  Get an iterator over the part of the union of the score lists in
+   *  this operator's DaaTPtrs whose docids are in [lo, hi).
+   *  @param lo The first docid of the range.
+   *  @param hi The docid just past the end of the range.
+   *  @return The union.
+   */
+  protected ScoreListUnion unionOfDaaTPtrs (int lo, int hi) {
+
+    List<ScoreList> lists = new ArrayList<ScoreList>();
+
+    for (int i=0; i<this.daatPtrs.size(); i++)
+      lists.add (this.daatPtrs.get(i).scoreList);
+
+    return new ScoreListUnion (lists, lo, hi);
+  }
+
+  /**
+   *  Scores the documents in one range of docids.  Operators whose
+   *  score for a document does not depend on the other documents
+   *  implement their main loop as a RangeScorer, so that scoreRanges
+   *  can split the docid space.
+   */
+  protected interface RangeScorer {
+
+    /**
+     *  Score the documents in [lo, hi).
+     *  @param lo The first docid of the range.
+     *  @param hi The docid just past the end of the range.
+     *  @param scores The list to add the scores to, in docid order.
+     *  @return void
+     *  @throws IOException
+     */
+    void score (int lo, int hi, ScoreList scores) throws IOException;
+  }
+
+  /**
+   *  Run a RangeScorer over the whole docid space.  If the query has
+   *  docid ranges, each range is scored as a separate task, and the
+   *  partial score lists are concatenated in range order, which gives
+   *  the same list as scoring the whole space at once.
+   *  @param scorer The operator's scoring loop.
+   *  @return The score list.
+   *  @throws IOException
+   */
+  protected ScoreList scoreRanges (final RangeScorer scorer)
+    throws IOException {
+
+    ScoreList scores = new ScoreList ();
+
+    if ((this.parallelism == null) || (this.parallelism.rangeCount() < 2)) {
+      scorer.score (0, ScoreListUnion.NO_MORE_DOCS, scores);
+      return scores;
+    }
+
+    List<Callable<ScoreList>> tasks = new ArrayList<Callable<ScoreList>>();
+
+    for (int i=0; i<this.parallelism.rangeCount(); i++) {
+      final int lo = this.parallelism.rangeStart(i);
+      final int hi = this.parallelism.rangeEnd(i);
+
+      tasks.add (new Callable<ScoreList>() {
+	  public ScoreList call () throws IOException {
+	    ScoreList part = new ScoreList ();
+	    scorer.score (lo, hi, part);
+	    return part;
+	  }
+	});
+    }
+
+    for (ScoreList part : this.parallelism.invokeAll (tasks))
+      scores.addAll (part);
+
+    return scores;
+  }
+
   /*
    *  Calculate the default score for the specified document if it
    *  does not match the query operator.  This score is 0 for many
@@ -51,4 +194,199 @@ public abstract class QryopSl extends Qryop {
    */
   public abstract double getDefaultScore (RetrievalModel r, long docid) throws IOException;
 
+  /**
+   *  Calculate the logarithm of the default score for the specified
+   *  document.  Operators that can compute it from their arguments' log
+   *  default scores (e.g., #SCORE and #AND under Indri) override this.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param docid The internal id of the document that needs a default score.
+   *  @return The logarithm of the default score.
+   *  @throws IOException
+   */
+  public double getDefaultLogScore (RetrievalModel r, long docid)
+    throws IOException {
+    return Math.log (getDefaultScore (r, docid));
+  }
+
+  /**
+   *  Calculate the default scores of a block of documents.  Operators
+   *  whose default scores can be computed more cheaply together than
+   *  one at a time (e.g., #SCORE under Indri) override this.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param docids The internal ids of the documents.
+   *  @param n The number of documents in the block.
+   *  @param scores Receives the default score of docids[i] in scores[i].
+   *  @return void
+   *  @throws IOException
+   */
+  public void getDefaultScores (RetrievalModel r, int[] docids, int n,
+				double[] scores) throws IOException {
+    for (int i=0; i<n; i++)
+      scores[i] = getDefaultScore (r, docids[i]);
+  }
+
+  /**
+   *  Calculate the logarithms of the default scores of a block of
+   *  documents.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param docids The internal ids of the documents.
+   *  @param n The number of documents in the block.
+   *  @param scores Receives the log default score of docids[i] in
+   *  scores[i].
+   *  @return void
+   *  @throws IOException
+   */
+  public void getDefaultLogScores (RetrievalModel r, int[] docids, int n,
+				   double[] scores) throws IOException {
+    for (int i=0; i<n; i++)
+      scores[i] = getDefaultLogScore (r, docids[i]);
+  }
+
+  /**
+   *  Get the blocks of the union of this operator's arguments in a
+   *  range of docids (see ScoreBlock).
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param lo The first docid of the range.
+   *  @param hi The docid just past the end of the range.
+   *  @param logs If true, the arguments' scores are logarithms, and the
+   *  blocks are filled in with log default scores.
+   *  @return The first (still empty) block; call next to fill it.
+   *  @throws IOException
+   */
+  protected ScoreBlock scoreBlocksOfDaaTPtrs (RetrievalModel r, int lo, int hi,
+					      boolean logs)
+    throws IOException {
+
+    QryopSl[] slArgs = new QryopSl[this.args.size()];
+
+    for (int i=0; i<slArgs.length; i++)
+      slArgs[i] = (QryopSl) this.args.get(i);
+
+    return new ScoreBlock (r, slArgs, scoreIteratorsOfDaaTPtrs (lo, hi), logs);
+  }
+
+  /**
+   *  The number of documents in a ScoreBlock.
+   */
+  protected static final int BLOCK_SIZE = 256;
+
+  /**
+   *  A block of consecutive documents of the union of an operator's
+   *  arguments, with every argument's score for every document:  the
+   *  argument's own score if it matches the document, or else its
+   *  default score.  The default scores an argument owes the block are
+   *  computed in one call to getDefaultScores (or getDefaultLogScores),
+   *  instead of one call to getDefaultScore per document, so an
+   *  operator such as #AND can combine its arguments one block at a
+   *  time.  The scores are copied as the arguments produce them:  under
+   *  Indri in log space, every argument's scores are already logs.
+   */
+  protected static class ScoreBlock {
+
+    /**
+     *  The documents of the block, in docid order.
+     */
+    public final int[] docids = new int[BLOCK_SIZE];
+
+    /**
+     *  scores[b][i] is argument b's score (or log score) for docids[i].
+     */
+    public final double[][] scores;
+
+    private RetrievalModel r;
+    private QryopSl[] args;
+    private ScoreIteratorUnion union;
+    private boolean logs;
+
+    //  The positions in the block of the documents each argument does
+    //  not match, and scratch arrays for their default scores.
+
+    private int[][] missing;
+    private int[] missingCount;
+    private int[] missingDocids = new int[BLOCK_SIZE];
+    private double[] defaults = new double[BLOCK_SIZE];
+
+    ScoreBlock (RetrievalModel r, QryopSl[] args, ScoreIteratorUnion union,
+		boolean logs) {
+
+      this.r = r;
+      this.args = args;
+      this.union = union;
+      this.logs = logs;
+      this.scores = new double[args.length][BLOCK_SIZE];
+      this.missing = new int[args.length][BLOCK_SIZE];
+      this.missingCount = new int[args.length];
+    }
+
+    /**
+     *  Fill the block with the next documents of the union.
+     *  @return The number of documents in the block, 0 when the union
+     *  is exhausted.
+     *  @throws IOException
+     */
+    public int next () throws IOException {
+
+      int n = 0;
+
+      Arrays.fill (this.missingCount, 0);
+
+      while (n < BLOCK_SIZE &&
+	     this.union.nextDoc () != ScoreIteratorUnion.NO_MORE_DOCS) {
+
+	this.docids[n] = this.union.docID ();
+
+	for (int b=0; b<this.args.length; b++) {
+	  if (this.union.matches (b))
+	    this.scores[b][n] = this.union.score (b);
+	  else
+	    this.missing[b][this.missingCount[b]++] = n;
+	}
+
+	n ++;
+      }
+
+      //  Fill in the default scores, one argument at a time.
+
+      for (int b=0; b<this.args.length; b++) {
+	int m = this.missingCount[b];
+
+	if (m == 0)
+	  continue;
+
+	for (int j=0; j<m; j++)
+	  this.missingDocids[j] = this.docids[this.missing[b][j]];
+
+	if (this.logs)
+	  this.args[b].getDefaultLogScores (this.r, this.missingDocids, m, this.defaults);
+	else
+	  this.args[b].getDefaultScores (this.r, this.missingDocids, m, this.defaults);
+
+	for (int j=0; j<m; j++)
+	  this.scores[b][this.missing[b][j]] = this.defaults[j];
+      }
+
+      return n;
+    }
+  }
+
+  /**
+   *  The weight of each argument divided by the sum of the arguments'
+   *  weights, as #WAND and #WSUM combine them.
+   *  @return The normalized weights, in argument order.
+   */
+  protected double[] normalizedWeights () {
+
+    double wgtSum = 0.0;
+
+    for (int i=0; i<this.args.size(); i++)
+      wgtSum += this.args.get(i).weight;
+
+    double[] weights = new double[this.args.size()];
+
+    for (int i=0; i<weights.length; i++)
+      weights[i] = this.args.get(i).weight / wgtSum;
+
+    return weights;
+  }
+
 }
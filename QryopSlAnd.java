@@ -87,8 +87,8 @@ public class QryopSlAnd extends QryopSl {
 
 		for (int i = 0; i < (this.daatPtrs.size() - 1); i++) {
 			for (int j = i + 1; j < this.daatPtrs.size(); j++) {
-				if (this.daatPtrs.get(i).scoreList.scores.size() > this.daatPtrs
-						.get(j).scoreList.scores.size()) {
+				if (this.daatPtrs.get(i).scoreList.size() > this.daatPtrs
+						.get(j).scoreList.size()) {
 					ScoreList tmpScoreList = this.daatPtrs.get(i).scoreList;
 					this.daatPtrs.get(i).scoreList = this.daatPtrs.get(j).scoreList;
 					this.daatPtrs.get(j).scoreList = tmpScoreList;
@@ -104,33 +104,43 @@ public class QryopSlAnd extends QryopSl {
 		// to terminate an outer loop from within an inner loop.
 		// Otherwise it is necessary to use flags, which is also ugly.
 
-		Qryop.DaaTPtr ptr0 = this.daatPtrs.get(0);
+		// Each document is scored on its own, so the docid space can be
+		// split into ranges that are evaluated separately.
 
-		EVALUATEDOCUMENTS: for (; ptr0.nextDoc < ptr0.scoreList.scores.size(); ptr0.nextDoc++) {
+		result.docScores = scoreRanges(new RangeScorer() {
+			public void score(int lo, int hi, ScoreList scores) {
 
-			int ptr0Docid = ptr0.scoreList.getDocid(ptr0.nextDoc);
-			double docScore = 1.0;
+				ScoreList[] lists = scoreListsOfDaaTPtrs();
+				int[] next = firstIndexes(lists, lo);
 
-			for (int j = 1; j < this.daatPtrs.size(); j++) {
+				EVALUATEDOCUMENTS: while (next[0] < lists[0].size()
+						&& lists[0].getDocid(next[0]) < hi) {
 
-				Qryop.DaaTPtr ptrj = this.daatPtrs.get(j);
+					int ptr0Docid = lists[0].getDocid(next[0]);
+					double docScore = 1.0;
 
-				while (true) {
-					if (ptrj.nextDoc >= ptrj.scoreList.scores.size())
-						break EVALUATEDOCUMENTS; // No more docs can match
-					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) > ptr0Docid)
-						continue EVALUATEDOCUMENTS; // The ptr0docid can't
-													// match.
-					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) < ptr0Docid)
-						ptrj.nextDoc++; // Not yet at the right doc.
-					else {
-						break; // ptrj matches ptr0Docid
+					for (int j = 1; j < lists.length; j++) {
+
+						// Skip list j ahead to the first document that could match.
+
+						next[j] = lists[j].advance(next[j], ptr0Docid);
+
+						if (next[j] >= lists[j].size())
+							break EVALUATEDOCUMENTS; // No more docs can match
+						else if (lists[j].getDocid(next[j]) > ptr0Docid) {
+							// The ptr0Docid can't match. Leapfrog list 0 to the
+							// first document that list j could match.
+							next[0] = lists[0].advance(next[0],
+									lists[j].getDocid(next[j]));
+							continue EVALUATEDOCUMENTS;
+						}
 					}
+					scores.add(ptr0Docid, docScore);
+					// The ptr0Docid matched all query arguments, so save it.
+					next[0]++;
 				}
 			}
-			result.docScores.add(ptr0Docid, docScore);
-			// The ptr0Docid matched all query arguments, so save it.
-		}
+		});
 		freeDaaTPtrs();
 		return result;
 	}
@@ -152,48 +162,56 @@ public class QryopSlAnd extends QryopSl {
 		//sort the lists to get the smallest one first
 		for (int i = 0; i < (this.daatPtrs.size() - 1); i++) {
 			for (int j = i + 1; j < this.daatPtrs.size(); j++) {
-				if (this.daatPtrs.get(i).scoreList.scores.size() > this.daatPtrs
-						.get(j).scoreList.scores.size()) {
+				if (this.daatPtrs.get(i).scoreList.size() > this.daatPtrs
+						.get(j).scoreList.size()) {
 					ScoreList tmpScoreList = this.daatPtrs.get(i).scoreList;
 					this.daatPtrs.get(i).scoreList = this.daatPtrs.get(j).scoreList;
 					this.daatPtrs.get(j).scoreList = tmpScoreList;
 				}
 			}
 		}
-		Qryop.DaaTPtr ptr0 = this.daatPtrs.get(0);
+		// Each document is scored on its own, so the docid space can be
+		// split into ranges that are evaluated separately.
 
-		EVALUATEDOCUMENTS: for (; ptr0.nextDoc < ptr0.scoreList.scores.size(); ptr0.nextDoc++) {
+		result.docScores = scoreRanges(new RangeScorer() {
+			public void score(int lo, int hi, ScoreList scores) {
 
-			int ptr0Docid = ptr0.scoreList.getDocid(ptr0.nextDoc);
-			double docScore = Double.MAX_VALUE;
+				ScoreList[] lists = scoreListsOfDaaTPtrs();
+				int[] next = firstIndexes(lists, lo);
 
-			// Do the other query arguments have the ptr0Docid?
+				EVALUATEDOCUMENTS: while (next[0] < lists[0].size()
+						&& lists[0].getDocid(next[0]) < hi) {
 
-			for (int j = 1; j < this.daatPtrs.size(); j++) {
+					int ptr0Docid = lists[0].getDocid(next[0]);
+					double docScore = Double.MAX_VALUE;
 
-				Qryop.DaaTPtr ptrj = this.daatPtrs.get(j);
+					// Do the other query arguments have the ptr0Docid?
+
+					for (int j = 1; j < lists.length; j++) {
+
+						next[j] = lists[j].advance(next[j], ptr0Docid);
+
+						if (next[j] >= lists[j].size())
+							break EVALUATEDOCUMENTS; // No more docs can match
+						else if (lists[j].getDocid(next[j]) > ptr0Docid) {
+							// The ptr0Docid can't match. Leapfrog list 0 to the
+							// first document that list j could match.
+							next[0] = lists[0].advance(next[0],
+									lists[j].getDocid(next[j]));
+							continue EVALUATEDOCUMENTS;
+						}
 
-				while (true) {
-					if (ptrj.nextDoc >= ptrj.scoreList.scores.size())
-						break EVALUATEDOCUMENTS; // No more docs can match
-					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) > ptr0Docid)
-						continue EVALUATEDOCUMENTS; // The ptr0docid can't
-													// match.
-					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) < ptr0Docid)
-						ptrj.nextDoc++; // Not yet at the right doc.
-					else {
 						//take minimum of tf-idf of all queries 
 						docScore = Math.min(docScore, Math.min(
-								ptr0.scoreList.getDocidScore(ptr0.nextDoc),
-								ptrj.scoreList.getDocidScore(ptrj.nextDoc)));
-						break; // ptrj matches ptr0Docid
+								lists[0].getDocidScore(next[0]),
+								lists[j].getDocidScore(next[j])));
 					}
+					scores.add(ptr0Docid, docScore);
+					// The ptr0Docid matched all query arguments, so save it.
+					next[0]++;
 				}
 			}
-			result.docScores.add(ptr0Docid, docScore);
-			// The ptr0Docid matched all query arguments, so save it.
-
-		}
+		});
 		freeDaaTPtrs();
 		return result;
 	}
@@ -216,8 +234,8 @@ public class QryopSlAnd extends QryopSl {
 		//sort the lists to get the smallest one at index 0
 		for (int i = 0; i < (this.daatPtrs.size() - 1); i++) {
 			for (int j = i + 1; j < this.daatPtrs.size(); j++) {
-				if (this.daatPtrs.get(i).scoreList.scores.size() > this.daatPtrs
-						.get(j).scoreList.scores.size()) {
+				if (this.daatPtrs.get(i).scoreList.size() > this.daatPtrs
+						.get(j).scoreList.size()) {
 					ScoreList tmpScoreList = this.daatPtrs.get(i).scoreList;
 					this.daatPtrs.get(i).scoreList = this.daatPtrs.get(j).scoreList;
 					this.daatPtrs.get(j).scoreList = tmpScoreList;
@@ -270,7 +288,7 @@ public class QryopSlAnd extends QryopSl {
 
 		Qryop.DaaTPtr ptr0 = this.daatPtrs.get(0);
 
-		EVALUATEDOCUMENTS: for (; ptr0.nextDoc < ptr0.scoreList.scores.size(); ptr0.nextDoc++) {
+		EVALUATEDOCUMENTS: for (; ptr0.nextDoc < ptr0.scoreList.size(); ptr0.nextDoc++) {
 
 			int ptr0Docid = ptr0.scoreList.getDocid(ptr0.nextDoc);
 			double docScore = Double.MAX_VALUE;
@@ -279,35 +297,33 @@ public class QryopSlAnd extends QryopSl {
 
 				Qryop.DaaTPtr ptrj = this.daatPtrs.get(j);
 
-				while (true) {
-					if (ptrj.nextDoc >= ptrj.scoreList.scores.size())
-						break EVALUATEDOCUMENTS; // No more docs can match
-					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) > ptr0Docid)
-						continue EVALUATEDOCUMENTS; // The ptr0docid can't
-													// match.
-					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) < ptr0Docid)
-						ptrj.nextDoc++; // Not yet at the right doc.
-					else {
-						// the values in document vector are given by idf scores
-						// the values in query vector are given by tf scores
-						double inverseDocFreq0 = Math
-								.log(((RetrievalModelCosineSimilarityRanked) r).numDocsInIndex
-										/ 1	+ (double) ptr0.scoreList.scores.size());
-						double inverseDocFreqj = Math
-								.log(((RetrievalModelCosineSimilarityRanked) r).numDocsInIndex
-										/ 1 + (double) ptrj.scoreList.scores.size());
-						double docScore0 = ptr0.scoreList
-								.getDocidScore(ptr0.nextDoc) * inverseDocFreq0;
-						double docScorej = ptrj.scoreList
-								.getDocidScore(ptrj.nextDoc) * inverseDocFreqj;
-
-						magnitudeDocumentVector += inverseDocFreqj* inverseDocFreqj +
-								inverseDocFreq0*inverseDocFreq0;
-						docScore = (docScore+docScore0 + docScorej);
-						
-						break; // ptrj matches ptr0Docid
-					}
-				}
+				// Skip ptrj ahead to the first document that could match.
+				// ptr0 is not leapfrogged because the scores below carry
+				// state from one candidate document to the next.
+
+				ptrj.nextDoc = ptrj.scoreList.advance(ptrj.nextDoc, ptr0Docid);
+
+				if (ptrj.nextDoc >= ptrj.scoreList.size())
+					break EVALUATEDOCUMENTS; // No more docs can match
+				else if (ptrj.scoreList.getDocid(ptrj.nextDoc) > ptr0Docid)
+					continue EVALUATEDOCUMENTS; // The ptr0docid can't match.
+
+				// the values in document vector are given by idf scores
+				// the values in query vector are given by tf scores
+				double inverseDocFreq0 = Math
+						.log(((RetrievalModelCosineSimilarityRanked) r).numDocsInIndex
+								/ 1	+ (double) ptr0.scoreList.size());
+				double inverseDocFreqj = Math
+						.log(((RetrievalModelCosineSimilarityRanked) r).numDocsInIndex
+								/ 1 + (double) ptrj.scoreList.size());
+				double docScore0 = ptr0.scoreList
+						.getDocidScore(ptr0.nextDoc) * inverseDocFreq0;
+				double docScorej = ptrj.scoreList
+						.getDocidScore(ptrj.nextDoc) * inverseDocFreqj;
+
+				magnitudeDocumentVector += inverseDocFreqj* inverseDocFreqj +
+						inverseDocFreq0*inverseDocFreq0;
+				docScore = (docScore+docScore0 + docScorej);
 			}
 			magnitudeDocumentVector = Math.sqrt(magnitudeDocumentVector);
 			docScore = (docScore/(magnitudeQueryVector*magnitudeDocumentVector));
@@ -335,8 +351,8 @@ public class QryopSlAnd extends QryopSl {
 		boolean IsStructured = false;
 		for (int i = 0; i < (this.daatPtrs.size() - 1); i++) {
 			for (int j = i + 1; j < this.daatPtrs.size(); j++) {
-				if (this.daatPtrs.get(i).scoreList.scores.size() > this.daatPtrs
-						.get(j).scoreList.scores.size()) {
+				if (this.daatPtrs.get(i).scoreList.size() > this.daatPtrs
+						.get(j).scoreList.size()) {
 					ScoreList tmpScoreList = this.daatPtrs.get(i).scoreList;
 					this.daatPtrs.get(i).scoreList = this.daatPtrs.get(j).scoreList;
 					this.daatPtrs.get(j).scoreList = tmpScoreList;
@@ -403,11 +419,11 @@ public class QryopSlAnd extends QryopSl {
 		Qryop.DaaTPtr ptr0 = this.daatPtrs.get(0);
 		double inverseDocFreq0 = Math
 				.log(((RetrievalModelFieldWeightRank) r).numDocsInIndex
-						/ 1	+ (double) ptr0.scoreList.scores.size());
+						/ 1	+ (double) ptr0.scoreList.size());
 		double docScore0 = ptr0.scoreList
 				.getDocidScore(ptr0.nextDoc) * inverseDocFreq0;
 		magnitudeDocumentVector=inverseDocFreq0;
-		EVALUATEDOCUMENTS: for (; ptr0.nextDoc < ptr0.scoreList.scores.size(); ptr0.nextDoc++) {
+		EVALUATEDOCUMENTS: for (; ptr0.nextDoc < ptr0.scoreList.size(); ptr0.nextDoc++) {
 
 			int ptr0Docid = ptr0.scoreList.getDocid(ptr0.nextDoc);
 			double docScore = 0.0;
@@ -419,48 +435,46 @@ public class QryopSlAnd extends QryopSl {
 
 				Qryop.DaaTPtr ptrj = this.daatPtrs.get(j);
 
-				while (true) {
-					if (ptrj.nextDoc >= ptrj.scoreList.scores.size())
-						break EVALUATEDOCUMENTS; // No more docs can match
-					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) > ptr0Docid)
-						continue EVALUATEDOCUMENTS; // The ptr0docid can't
-													// match.
-					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) < ptr0Docid)
-						ptrj.nextDoc++; // Not yet at the right doc.
-					else {
-						
-						double inverseDocFreqj = Math
-								.log(((RetrievalModelFieldWeightRank) r).numDocsInIndex
-										/ 1	+ (double) ptrj.scoreList.scores.size());
-						
-						double docScorej = ptrj.scoreList
-								.getDocidScore(ptrj.nextDoc) * inverseDocFreqj;
-						
-						if(j != 1)
-							docScore1 = (docScore1)*magnitudeDocumentVector;
-						else
-							docScore1 = (docScore1 + docScorej);
-						magnitudeDocumentVector = Math.sqrt(magnitudeDocumentVector*magnitudeDocumentVector +inverseDocFreqj* inverseDocFreqj
-								);
-						docScore1=docScore1/magnitudeDocumentVector;
-
-						//initial value of docScore = Double.MAX_VALUE which is taken for docScore values hence
-						//interferes in docScore1 result for the 0th element so splitting it 
-						if (j == 1) {
-							docScore2 = docScorej;
-						} else {
-							docScore2 = Math
-									.min(docScore2,	docScorej);
-						}
-						
-						//the results for structured are better if calculated from a different formula than normal AND queries
-						if (IsStructured)
-							docScore = 3*docScore1*magnitudeDocumentVector + 2*docScore2;
-						else {
-							docScore = docScore2;
-						}
-						break; // ptrj matches ptr0Docid
-					}
+				// Skip ptrj ahead to the first document that could match.
+				// ptr0 is not leapfrogged because the scores below carry
+				// state from one candidate document to the next.
+
+				ptrj.nextDoc = ptrj.scoreList.advance(ptrj.nextDoc, ptr0Docid);
+
+				if (ptrj.nextDoc >= ptrj.scoreList.size())
+					break EVALUATEDOCUMENTS; // No more docs can match
+				else if (ptrj.scoreList.getDocid(ptrj.nextDoc) > ptr0Docid)
+					continue EVALUATEDOCUMENTS; // The ptr0docid can't match.
+
+				double inverseDocFreqj = Math
+						.log(((RetrievalModelFieldWeightRank) r).numDocsInIndex
+								/ 1	+ (double) ptrj.scoreList.size());
+				
+				double docScorej = ptrj.scoreList
+						.getDocidScore(ptrj.nextDoc) * inverseDocFreqj;
+				
+				if(j != 1)
+					docScore1 = (docScore1)*magnitudeDocumentVector;
+				else
+					docScore1 = (docScore1 + docScorej);
+				magnitudeDocumentVector = Math.sqrt(magnitudeDocumentVector*magnitudeDocumentVector +inverseDocFreqj* inverseDocFreqj
+						);
+				docScore1=docScore1/magnitudeDocumentVector;
+
+				//initial value of docScore = Double.MAX_VALUE which is taken for docScore values hence
+				//interferes in docScore1 result for the 0th element so splitting it 
+				if (j == 1) {
+					docScore2 = docScorej;
+				} else {
+					docScore2 = Math
+							.min(docScore2,	docScorej);
+				}
+				
+				//the results for structured are better if calculated from a different formula than normal AND queries
+				if (IsStructured)
+					docScore = 3*docScore1*magnitudeDocumentVector + 2*docScore2;
+				else {
+					docScore = docScore2;
 				}
 			}
 			
@@ -481,59 +495,113 @@ public class QryopSlAnd extends QryopSl {
 	 * @return The result of evaluating the query.
 	 * @throws IOException
 	 */
-public QryResult evaluateIndri(RetrievalModel r) throws IOException{
+public QryResult evaluateIndri(final RetrievalModel r) throws IOException{
 		
-		allocDaaTPtrs(r);
+		// Term arguments are scored as the union reaches them, so no
+		// score list is built for them.
+
+		allocDaaTPtrs(r, true);
 		QryResult result = new QryResult();
 
-		Integer[] invListIterator = new Integer[this.args.size()];
-				
-		//Merge all the list to get de-duped list of all docids that can be present
-		Set<ScoreList.ScoreListEntry> mergedSet = new HashSet<ScoreList.ScoreListEntry>();
-		for (int w = 0; w < this.args.size(); w++) {
-			List<ScoreList.ScoreListEntry> list1 = this.daatPtrs.get(w).scoreList.scores;
-			mergedSet.addAll(list1);
-		}
-		List<ScoreList.ScoreListEntry> mergedList = new ArrayList<ScoreList.ScoreListEntry>(
-				mergedSet);
-		Collections.sort(mergedList, new QryopSlOR.docSort());
-		
-		for (int i =0;i<this.daatPtrs.size();i++){
-			invListIterator[i] = 0;
-		}
+		final double termCount =  1/(double)this.args.size();
 
-		double termCount =  1/(double)this.args.size();
-		
-		for (int a = 0; a < mergedList.size(); a++) {
-			int docida = mergedList.get(a).getDocID();
-			double totalscore = 1.0;
-			for (int b = 0; b < this.daatPtrs.size(); b++) {
-				
-				DaaTPtr ptrb = this.daatPtrs.get(b);	
-				if (ptrb.scoreList.scores.size() <= invListIterator[b]) {
-					totalscore *= Math.pow(((QryopSl)(this.args.get(b))).getDefaultScore(r, docida), termCount);
-					continue;
-				}	
-				
-				int docidb = ptrb.scoreList.getDocid(invListIterator[b]);
-				
-				if (docida == docidb) {
-					
-					totalscore *=  Math.pow(ptrb.scoreList.getDocidScore(invListIterator[b]), termCount);
-					invListIterator[b]++;
-				} else {
-					double defaultscore = 1.0;
-					defaultscore = Math.pow(((QryopSl)(this.args.get(b))).getDefaultScore(r, docida), termCount);
-					totalscore *= defaultscore;					
+		if (((RetreivalModelIndri) r).logSpace)
+			return evaluateIndriLogSpace(r, result);
+
+		// Each document is scored on its own, so the docid space can be
+		// split into ranges that are evaluated separately.
+
+		result.docScores = scoreRanges(new RangeScorer() {
+			public void score(int lo, int hi, ScoreList scores) throws IOException {
+
+				//walk the union of all arguments a block at a time; a
+				//document missing from an argument gets that argument's
+				//default score
+				ScoreBlock block = scoreBlocksOfDaaTPtrs(r, lo, hi, false);
+				double[][] argScores = block.scores;
+				int n;
+
+				while ((n = block.next()) > 0) {
+					for (int i = 0; i < n; i++) {
+						double totalscore = 1.0;
+						for (int b = 0; b < argScores.length; b++)
+							totalscore *= Math.pow(argScores[b][i], termCount);
+						scores.add(block.docids[i], totalscore);
+					}
 				}
-				
 			}
-			result.docScores.add(docida, totalscore);
-		
-		}
+		});
+		freeDaaTPtrs();
 		return result;
 	}
 	
+	/**
+	 * Evaluates the operator under Indri in log space: the arguments'
+	 * scores are log probabilities, and each document's score is their
+	 * sum weighted by 1/n, the log of the product of the n'th roots. A
+	 * document costs one addition per argument instead of a Math.pow.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @param result
+	 *            The result to fill in; the DaaT pointers are allocated.
+	 * @return The result of evaluating the query.
+	 * @throws IOException
+	 */
+	private QryResult evaluateIndriLogSpace(final RetrievalModel r,
+			QryResult result) throws IOException {
+
+		final double termCount = 1 / (double) this.args.size();
+
+		result.docScores = scoreRanges(new RangeScorer() {
+			public void score(int lo, int hi, ScoreList scores) throws IOException {
+
+				ScoreBlock block = scoreBlocksOfDaaTPtrs(r, lo, hi, true);
+				double[][] argScores = block.scores;
+				int n;
+
+				while ((n = block.next()) > 0) {
+					for (int i = 0; i < n; i++) {
+						double logScore = 0.0;
+						for (int b = 0; b < argScores.length; b++)
+							logScore += argScores[b][i];
+						scores.add(block.docids[i], termCount * logScore);
+					}
+				}
+			}
+		});
+		freeDaaTPtrs();
+		return result;
+	}
+
+	/**
+	 * The score lists of the DaaT pointers, in pointer order.
+	 * 
+	 * @return The score lists.
+	 */
+	private ScoreList[] scoreListsOfDaaTPtrs() {
+		ScoreList[] lists = new ScoreList[this.daatPtrs.size()];
+		for (int i = 0; i < lists.length; i++)
+			lists[i] = this.daatPtrs.get(i).scoreList;
+		return lists;
+	}
+
+	/**
+	 * The index of the first entry of each list whose docid is at least lo.
+	 * 
+	 * @param lists
+	 *            Score lists.
+	 * @param lo
+	 *            The first docid of a range.
+	 * @return The indexes.
+	 */
+	private static int[] firstIndexes(ScoreList[] lists, int lo) {
+		int[] next = new int[lists.length];
+		for (int i = 0; i < lists.length; i++)
+			next[i] = lists[i].advance(0, lo);
+		return next;
+	}
+
 	public double getPrecedingScores(int j, double termCount, RetrievalModel r, int docid){
 		double score = 1.0;
 		
@@ -622,6 +690,94 @@ public QryResult evaluateIndri(RetrievalModel r) throws IOException{
 		return 0.0;
 	}
 
+	/**
+	 * The logarithm of the default score under Indri: the arguments' log
+	 * default scores weighted by 1/n, with 1/n rounded to a float as
+	 * getDefaultScore rounds it, so that both modes rank alike.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @param docid
+	 *            The internal id of the document that needs a default score.
+	 * @return The logarithm of the default score.
+	 */
+	public double getDefaultLogScore(RetrievalModel r, long docid)
+			throws IOException {
+
+		if (!(r instanceof RetreivalModelIndri))
+			return super.getDefaultLogScore(r, docid);
+
+		double logScore = 0.0;
+		for (int i = 0; i < this.args.size(); i++)
+			logScore += ((QryopSl) (this.args.get(i))).getDefaultLogScore(r, docid);
+		return logScore * (1 / (float) this.args.size());
+	}
+
+	/**
+	 * The default scores of a block of documents under Indri, computed
+	 * from the arguments' default scores for the whole block.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @param docids
+	 *            The internal ids of the documents.
+	 * @param n
+	 *            The number of documents in the block.
+	 * @param scores
+	 *            Receives the default score of docids[i] in scores[i].
+	 * @throws IOException
+	 */
+	public void getDefaultScores(RetrievalModel r, int[] docids, int n,
+			double[] scores) throws IOException {
+
+		if (!(r instanceof RetreivalModelIndri)) {
+			super.getDefaultScores(r, docids, n, scores);
+			return;
+		}
+
+		double termCount = 1 / (float) this.args.size();
+		double[] argScores = new double[n];
+		Arrays.fill(scores, 0, n, 1.0);
+		for (int k = 0; k < this.args.size(); k++) {
+			((QryopSl) (this.args.get(k))).getDefaultScores(r, docids, n, argScores);
+			for (int i = 0; i < n; i++)
+				scores[i] *= Math.pow(argScores[i], termCount);
+		}
+	}
+
+	/**
+	 * The logarithms of the default scores of a block of documents under
+	 * Indri.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @param docids
+	 *            The internal ids of the documents.
+	 * @param n
+	 *            The number of documents in the block.
+	 * @param scores
+	 *            Receives the log default score of docids[i] in scores[i].
+	 * @throws IOException
+	 */
+	public void getDefaultLogScores(RetrievalModel r, int[] docids, int n,
+			double[] scores) throws IOException {
+
+		if (!(r instanceof RetreivalModelIndri)) {
+			super.getDefaultLogScores(r, docids, n, scores);
+			return;
+		}
+
+		double[] argScores = new double[n];
+		Arrays.fill(scores, 0, n, 0.0);
+		for (int k = 0; k < this.args.size(); k++) {
+			((QryopSl) (this.args.get(k))).getDefaultLogScores(r, docids, n, argScores);
+			for (int i = 0; i < n; i++)
+				scores[i] += argScores[i];
+		}
+		for (int i = 0; i < n; i++)
+			scores[i] *= (1 / (float) this.args.size());
+	}
+
 	/*
 	 * Return a string version of this query operator.
 	 * 
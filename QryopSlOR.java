@@ -74,20 +74,19 @@ public class QryopSlOR extends QryopSl {
 		allocDaaTPtrs(r);
 		QryResult result = new QryResult();
 
-		Set<ScoreList.ScoreListEntry> mergedSet = new HashSet<ScoreList.ScoreListEntry>();
+		// Each document is scored on its own, so the docid space can be
+		// split into ranges that are evaluated separately.
 
-		for (int w = 0; w < this.args.size(); w++) {
-			List<ScoreList.ScoreListEntry> list1 = this.daatPtrs.get(w).scoreList.scores;
+		result.docScores = scoreRanges(new RangeScorer() {
+			public void score(int lo, int hi, ScoreList scores) {
 
-			mergedSet.addAll(list1);
-		}
-		List<ScoreList.ScoreListEntry> mergedList = new ArrayList<ScoreList.ScoreListEntry>(
-				mergedSet);
-		Collections.sort(mergedList, new QryopSlOR.docSort());
+				ScoreListUnion union = unionOfDaaTPtrs(lo, hi);
 
-		for (int a = 0; a < mergedList.size(); a++) {
-			result.docScores.add(mergedList.get(a).getDocID(), 1.0);
-		}
+				while (union.nextDoc() != ScoreListUnion.NO_MORE_DOCS) {
+					scores.add(union.docID(), 1.0);
+				}
+			}
+		});
 		freeDaaTPtrs();
 		return result;
 	}
@@ -109,48 +108,37 @@ public class QryopSlOR extends QryopSl {
 		allocDaaTPtrs(r);
 		QryResult result = new QryResult();
 
-		//create a hash-set to merge all scorelist together as it removes duplicates
-		Set<ScoreList.ScoreListEntry> mergedSet = new HashSet<ScoreList.ScoreListEntry>();
+		// Each document is scored on its own, so the docid space can be
+		// split into ranges that are evaluated separately.
 
-		for (int w = 0; w < this.args.size(); w++) {
-			List<ScoreList.ScoreListEntry> list1 = this.daatPtrs.get(w).scoreList.scores;
+		result.docScores = scoreRanges(new RangeScorer() {
+			public void score(int lo, int hi, ScoreList scores) {
 
-			mergedSet.addAll(list1);
-		}
-		List<ScoreList.ScoreListEntry> mergedList = new ArrayList<ScoreList.ScoreListEntry>(
-				mergedSet);
-		//sort list of docid
-		Collections.sort(mergedList, new QryopSlOR.docSort());
-		
-		//keeps track of ptrs for all query term's inverted lists
-		int[] maxIter = new int[this.daatPtrs.size()];
-		for (int a = 0; a < mergedList.size(); a++) {
+				//walk the union of all score lists in docid order
+				ScoreListUnion union = unionOfDaaTPtrs(lo, hi);
 
-			double docScore = 0.0;
-			double docScore1 = 0.0;
-			for (int b = 0; b < this.daatPtrs.size(); b++) {
+				while (union.nextDoc() != ScoreListUnion.NO_MORE_DOCS) {
 
-				DaaTPtr ptrb = this.daatPtrs.get(b);
-				if (ptrb.scoreList.scores.size() <= maxIter[b]) {
-					continue;
-				}
-				//iteration for docid's on merged list
-				if (mergedList.get(a).getDocID() == ptrb.scoreList
-						.getDocid(maxIter[b])) {
-//					double inverseDocFreqb = Math
-//							.log(((RetrievalModelTfidfRanked) r).numDocsInIndex
-//									/ (double) ptrb.scoreList.scores.size());
-//					double docScoreb = ptrb.scoreList
-//							.getDocidScore(ptrb.nextDoc) * inverseDocFreqb;
-					double docScoreb = ptrb.scoreList.getDocidScore(ptrb.nextDoc);
-					docScore1 = Math.max(docScore1, docScoreb);
-					
-					docScore=docScore1;
-					maxIter[b]++;
+					double docScore = 0.0;
+					double docScore1 = 0.0;
+					for (int b = 0; b < daatPtrs.size(); b++) {
+
+						DaaTPtr ptrb = daatPtrs.get(b);
+						int matchedIndex = union.matchedIndex(b);
+
+						//skip the lists that do not contain this docid
+						if (matchedIndex < 0) {
+							continue;
+						}
+						double docScoreb = ptrb.scoreList.getDocidScore(matchedIndex);
+						docScore1 = Math.max(docScore1, docScoreb);
+				
+						docScore=docScore1;
+					}
+					scores.add(union.docID(), docScore);		
 				}
 			}
-			result.docScores.add(mergedList.get(a).getDocID(), docScore);		
-		}
+		});
 		freeDaaTPtrs();
 		return result;
 	}
@@ -216,36 +204,23 @@ public class QryopSlOR extends QryopSl {
 		}
 		magnitudeQueryVector = Math.sqrt(magnitudeQueryVector);
 
-		//create merged list with the help of hashset
-		Set<ScoreList.ScoreListEntry> mergedSet = new HashSet<ScoreList.ScoreListEntry>();
+		//walk the union of all score lists in docid order
+		ScoreListUnion union = unionOfDaaTPtrs();
 
-		for (int w = 0; w < this.args.size(); w++) {
-			List<ScoreList.ScoreListEntry> list1 = this.daatPtrs.get(w).scoreList.scores;
-
-			mergedSet.addAll(list1);
-		}
-		List<ScoreList.ScoreListEntry> mergedList = new ArrayList<ScoreList.ScoreListEntry>(
-				mergedSet);
-		Collections.sort(mergedList, new QryopSlOR.docSort());
-		
-		int[] maxIter = new int[this.daatPtrs.size()];
-		for (int a = 0; a < mergedList.size(); a++) {
+		while (union.nextDoc() != ScoreListUnion.NO_MORE_DOCS) {
 
 			double docScore = 0.0;
 			double docScore1 = 0.0;
 			for (int b = 0; b < this.daatPtrs.size(); b++) {
 
 				DaaTPtr ptrb = this.daatPtrs.get(b);
-				if (ptrb.scoreList.scores.size() <= maxIter[b]) {
-					continue;
-				}
-				if (mergedList.get(a).getDocID() == ptrb.scoreList
-						.getDocid(maxIter[b])) {
+				int matchedIndex = union.matchedIndex(b);
+				if (matchedIndex >= 0) {
 					double inverseDocFreqb = Math
 							.log(((RetrievalModelCosineSimilarityRanked) r).numDocsInIndex
-									/ (double) ptrb.scoreList.scores.size());
+									/ (double) ptrb.scoreList.size());
 					double docScoreb = ptrb.scoreList
-							.getDocidScore(ptrb.nextDoc) * inverseDocFreqb;
+							.getDocidScore(matchedIndex) * inverseDocFreqb;
 					docScore1 = (docScore1) * magnitudeDocumentVector;
 					docScore1 = (docScore1 + docScoreb);
 					magnitudeDocumentVector = Math.sqrt(magnitudeDocumentVector
@@ -254,10 +229,9 @@ public class QryopSlOR extends QryopSl {
 					docScore1 = docScore1 / magnitudeDocumentVector
 							* magnitudeQueryVector;
 					docScore = docScore1;
-					maxIter[b]++;
 				}
 			}
-			result.docScores.add(mergedList.get(a).getDocID(), docScore);
+			result.docScores.add(union.docID(), docScore);
 		}
 		freeDaaTPtrs();
 		return result;
@@ -324,37 +298,24 @@ public class QryopSlOR extends QryopSl {
 
 		magnitudeQueryVector = Math.sqrt(magnitudeQueryVector);
 
-		//create the duplicate removed and sorted list from union of all score lists
-		Set<ScoreList.ScoreListEntry> mergedSet = new HashSet<ScoreList.ScoreListEntry>();
-
-		for (int w = 0; w < this.args.size(); w++) {
-			List<ScoreList.ScoreListEntry> list1 = this.daatPtrs.get(w).scoreList.scores;
-
-			mergedSet.addAll(list1);
-		}
-		List<ScoreList.ScoreListEntry> mergedList = new ArrayList<ScoreList.ScoreListEntry>(
-				mergedSet);
-		Collections.sort(mergedList, new QryopSlOR.docSort());
-		int[] maxIter = new int[this.daatPtrs.size()];
+		//walk the union of all score lists in docid order
+		ScoreListUnion union = unionOfDaaTPtrs();
 		
-		//iterate over each docid in the merged list
-		for (int a = 0; a < mergedList.size(); a++) {
+		//iterate over each docid in the union
+		while (union.nextDoc() != ScoreListUnion.NO_MORE_DOCS) {
 			double docScore2 = 0.0;
 			double docScore = 0.0;
 			double docScore1 = 0.0;
 			for (int b = 0; b < this.daatPtrs.size(); b++) {
 
 				DaaTPtr ptrb = this.daatPtrs.get(b);
-				if (ptrb.scoreList.scores.size() <= maxIter[b]) {
-					continue;
-				}
-				if (mergedList.get(a).getDocID() == ptrb.scoreList
-						.getDocid(maxIter[b])) {
+				int matchedIndex = union.matchedIndex(b);
+				if (matchedIndex >= 0) {
 					double inverseDocFreqb = Math
 							.log(((RetrievalModelFieldWeightRank) r).numDocsInIndex
-									/ (double) ptrb.scoreList.scores.size());
+									/ (double) ptrb.scoreList.size());
 					double docScoreb = ptrb.scoreList
-							.getDocidScore(ptrb.nextDoc) * inverseDocFreqb;
+							.getDocidScore(matchedIndex) * inverseDocFreqb;
 
 					//use a combination of docScore1 and docScore2
 					docScore2 = Math.max(docScore2, docScoreb);					
@@ -367,33 +328,14 @@ public class QryopSlOR extends QryopSl {
 							* magnitudeQueryVector;
 
 					docScore = docScore1 * magnitudeDocumentVector + docScore2;
-
-					maxIter[b]++;
 				}
 			}
-			result.docScores.add(mergedList.get(a).getDocID(), docScore);
+			result.docScores.add(union.docID(), docScore);
 		}
 		freeDaaTPtrs();
 		return result;
 	}
 
-	public static class docSort implements Comparator<ScoreList.ScoreListEntry> {
-		public int compare(ScoreList.ScoreListEntry o1,
-				ScoreList.ScoreListEntry o2) {
-			try {
-				if (o1.getDocID() < o2.getDocID())
-					return -1;
-				else if (o1.getDocID() > o2.getDocID())
-					return 1;
-				else
-					return 0;
-			} catch (Exception e) {
-				System.out.println("Execption while sorting..");
-				return 0;
-			}
-		}
-	}
-
 	/*
 	 * Calculate the default score for the specified document if it does not
 	 * match the query operator. This score is 0 for many retrieval models, but
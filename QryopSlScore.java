@@ -15,6 +15,27 @@ public class QryopSlScore extends QryopSl {
 	
 	int cmutf = 0;
 	String field ;
+	DocLengthStore.FieldLengths lengths;
+
+	/**
+	 * Set by a parent that reads this operator's scores through
+	 * scoreIterator (see QryopSl.allocDaaTPtrs). BM25 and Indri
+	 * evaluation then only prepare the postings, and the score list of
+	 * the result stays empty.
+	 */
+	boolean lazy = false;
+
+	// The argument's postings and the per-term constants of the retrieval
+	// model, set when the operator is evaluated under BM25 or Indri.
+
+	InvList postings;
+	RetrievalModel model;
+	double idfwgt;
+	double avglen;
+
+	// Indri's per-term smoothing constants.
+
+	IndriSmoothing smoothing;
 	
 	/**
 	 * Construct a new SCORE operator. The SCORE operator accepts just one
@@ -105,8 +126,9 @@ public class QryopSlScore extends QryopSl {
 		// If the evaluate operation above returned a score list (which is
 		// very possible), this loop gets skipped.
 
-		for (int i = 0; i < result.invertedList.df; i++) {
-			result.docScores.add(result.invertedList.postings.get(i).docid,
+		InvListCursor postings = result.invertedList.cursor();
+		while (postings.nextDoc() != InvListCursor.NO_MORE_DOCS) {
+			result.docScores.add(postings.docID(),
 					(float) 1.0);
 		}
 
@@ -129,13 +151,14 @@ public class QryopSlScore extends QryopSl {
 		// If the evaluate operation above returned a score list (which is
 		// very possible), this loop gets skipped.
 
-		for (int i = 0; i < result.invertedList.postings.size(); i++) {
+		InvListCursor postings = result.invertedList.cursor();
+		while (postings.nextDoc() != InvListCursor.NO_MORE_DOCS) {
 
 			// DIFFERENT RETRIEVAL MODELS IMPLEMENT THIS DIFFERENTLY.
 			// Unranked Boolean. All matching documents get a score of 1.0.
-			int termFreq = result.invertedList.postings.get(i).tf;
+			int termFreq = postings.freq();
 			
-			result.docScores.add(result.invertedList.postings.get(i).docid,
+			result.docScores.add(postings.docID(),
 					(float) (termFreq ));
 
 		}
@@ -168,14 +191,15 @@ public class QryopSlScore extends QryopSl {
 		// If the evaluate operation above returned a score list (which is
 		// very possible), this loop gets skipped.
 
-		for (int i = 0; i < result.invertedList.df; i++) {
+		InvListCursor postings = result.invertedList.cursor();
+		while (postings.nextDoc() != InvListCursor.NO_MORE_DOCS) {
 
 			// DIFFERENT RETRIEVAL MODELS IMPLEMENT THIS DIFFERENTLY.
 			// Unranked Boolean. All matching documents get a score of 1.0.
-			int termFreq = result.invertedList.postings.get(i).tf;
+			int termFreq = postings.freq();
 			float inversedDocumentFreq = (((RetrievalModelTfidfRanked) r).numDocsInIndex)
-					/ (float) result.invertedList.postings.size();
-			result.docScores.add(result.invertedList.postings.get(i).docid,
+					/ (float) result.invertedList.df;
+			result.docScores.add(postings.docID(),
 					(float) (termFreq * Math.log(inversedDocumentFreq)));
 
 		}
@@ -209,11 +233,12 @@ public class QryopSlScore extends QryopSl {
 		// If the evaluate operation above returned a score list (which is
 		// very possible), this loop gets skipped.
 
-		for (int i = 0; i < result.invertedList.df; i++) {
+		InvListCursor postings = result.invertedList.cursor();
+		while (postings.nextDoc() != InvListCursor.NO_MORE_DOCS) {
 
-			int termFreq = result.invertedList.postings.get(i).tf;
+			int termFreq = postings.freq();
 
-			result.docScores.add(result.invertedList.postings.get(i).docid,
+			result.docScores.add(postings.docID(),
 					termFreq);
 
 		}
@@ -233,39 +258,198 @@ public class QryopSlScore extends QryopSl {
 
 		// Evaluate the query argument.
 
-		QryResult result = args.get(0).evaluate(r);	
-		
-		RetrievalModelBM25 rm = (RetrievalModelBM25) r;
-		
-			// check below for if term is in half of the doc then assign score
-			// to 0
-			double idfwgt = Math.log((QryEval.READER.numDocs()
-					- result.invertedList.df + 0.5)
-					/ (result.invertedList.df + 0.5));
-			if (idfwgt<0)
-				idfwgt=0;
-		
-			double qtf = 1.0;
-
-			Vector<InvList.DocPosting> posting = new Vector<InvList.DocPosting>();
-			posting = result.invertedList.postings;
-			for (int j = 0; j < posting.size(); j++) {
-
-				double avglen = QryEval.READER.getSumTotalTermFreq(result.invertedList.field)
-						/ (float) QryEval.READER.getDocCount(result.invertedList.field);
-				
-				double avglend = (QryEval.dls.getDocLength(result.invertedList.field,posting.get(j).docid) / avglen);
-				double den = rm.k1 * ((1 - rm.b) + rm.b *avglend);
-				double tfwgt = (result.invertedList.postings.get(j).tf )
-						/ (result.invertedList.postings.get(j).tf + den);
-				double score = tfwgt  * idfwgt;
-				
-				result.docScores.add(posting.get(j).docid, score);
-				
-			
+		QryResult result = prepareScoring(r);
+
+		// Positions are never needed here, so a streaming list is
+		// scored straight from the index.
+
+		if (!this.lazy)
+			addScores(result.docScores);
+		return result;
+
+	}
+
+	/**
+	 * Whether a retrieval model's #SCORE operators can score their
+	 * postings on the fly, one document at a time.
+	 * 
+	 * @param r
+	 *            A retrieval model.
+	 * @return True for BM25 and Indri.
+	 */
+	static boolean scoresLazily(RetrievalModel r) {
+		return (r instanceof RetrievalModelBM25)
+				|| (r instanceof RetreivalModelIndri);
+	}
+
+	/**
+	 * Evaluate the query argument and compute the per-term constants of a
+	 * BM25 or Indri retrieval model.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return The result of evaluating the query argument.
+	 * @throws IOException
+	 */
+	private QryResult prepareScoring(RetrievalModel r) throws IOException {
+
+		QryResult result = args.get(0).evaluate(r);
+
+		this.postings = result.invertedList;
+		this.model = r;
+		this.cmutf = result.invertedList.ctf;
+		this.field = result.invertedList.field;
+		this.lengths = QryEval.dls.field(this.field);
+
+		if (r instanceof RetrievalModelBM25) {
+			this.idfwgt = bm25Idf(result.invertedList.df);
+			this.avglen = bm25AvgLen(result.invertedList.field);
+		} else {
+			double pMLE_qiC = result.invertedList.ctf / (float)QryEval.stats.sumTotalTermFreq(result.invertedList.field);
+			this.smoothing = new IndriSmoothing((RetreivalModelIndri) r, pMLE_qiC, this.lengths);
 		}
 		return result;
+	}
+
+	/**
+	 * Score every posting and add it to a score list.
+	 * 
+	 * @param scores
+	 *            The score list.
+	 * @throws IOException
+	 */
+	private void addScores(ScoreList scores) throws IOException {
+		ScoreIterator postingScores = scoreIterator(0, ScoreIterator.NO_MORE_DOCS);
+		while (postingScores.nextDoc() != ScoreIterator.NO_MORE_DOCS) {
+			scores.add(postingScores.docID(), postingScores.score());
+		}
+	}
+
+	/**
+	 * Get an iterator that scores this operator's postings in a range of
+	 * docids as they are read, without building a score list. The
+	 * operator must have been evaluated under BM25 or Indri. Each call
+	 * returns an independent iterator, so ranges can be scored
+	 * concurrently.
+	 * 
+	 * @param lo
+	 *            The first docid of the range.
+	 * @param hi
+	 *            The docid just past the end of the range.
+	 * @return The iterator.
+	 * @throws IOException
+	 */
+	public ScoreIterator scoreIterator(int lo, int hi) throws IOException {
+		return new PostingScores(this.postings.cursor(), lo, hi);
+	}
+
+	/**
+	 * The score of a posting under the retrieval model the operator was
+	 * evaluated with. In Indri's log space it is the log probability.
+	 */
+	private double postingScore(int tf, int docid) {
+		if (this.model instanceof RetrievalModelBM25) {
+			double doclen = this.lengths.get(docid);
+			return bm25Score((RetrievalModelBM25) this.model, this.idfwgt, tf,
+					doclen, this.avglen);
+		}
+		if (((RetreivalModelIndri) this.model).logSpace)
+			return this.smoothing.logScore(tf, docid);
+		return this.smoothing.score(tf, docid);
+	}
+
+	/**
+	 * Scores the postings of a cursor in [lo, hi).
+	 */
+	private class PostingScores extends ScoreIterator {
+
+		private InvListCursor cursor;
+		private int lo;
+		private int hi;
+		private int doc = -1;
+
+		PostingScores(InvListCursor cursor, int lo, int hi) {
+			this.cursor = cursor;
+			this.lo = lo;
+			this.hi = hi;
+		}
 
+		public int docID() {
+			return this.doc;
+		}
+
+		public int nextDoc() throws IOException {
+			return clip((this.doc < 0) ? this.cursor.advance(this.lo)
+					: this.cursor.nextDoc());
+		}
+
+		public int advance(int target) throws IOException {
+			if (this.doc >= target)
+				return this.doc;
+			return clip(this.cursor.advance(Math.max(target, this.lo)));
+		}
+
+		private int clip(int d) {
+			return (this.doc = (d >= this.hi) ? NO_MORE_DOCS : d);
+		}
+
+		public double score() throws IOException {
+			return postingScore(this.cursor.freq(), this.doc);
+		}
+	}
+
+	/**
+	 * The BM25 idf weight of a term. Terms that occur in more than half of
+	 * the documents get weight 0.
+	 * 
+	 * @param df
+	 *            The document frequency of the term.
+	 * @return The idf weight.
+	 */
+	static double bm25Idf(int df) {
+		double idfwgt = Math.log((QryEval.stats.numDocs() - df + 0.5)
+				/ (df + 0.5));
+		if (idfwgt < 0)
+			idfwgt = 0;
+		return idfwgt;
+	}
+
+	/**
+	 * The average length of a field, as used by BM25.
+	 * 
+	 * @param field
+	 *            The field name.
+	 * @return The average field length.
+	 * @throws IOException
+	 */
+	static double bm25AvgLen(String field) throws IOException {
+		return QryEval.stats.avgLength(field);
+	}
+
+	/**
+	 * The BM25 score of one term in one document, not yet multiplied by
+	 * the query term weight. It grows with tf and shrinks with doclen, so
+	 * the largest tf and the smallest doclen of a list give an upper
+	 * bound on the scores of the list.
+	 * 
+	 * @param rm
+	 *            The BM25 retrieval model.
+	 * @param idfwgt
+	 *            The idf weight of the term.
+	 * @param tf
+	 *            The term frequency in the document.
+	 * @param doclen
+	 *            The length of the field in the document.
+	 * @param avglen
+	 *            The average length of the field.
+	 * @return The score.
+	 */
+	static double bm25Score(RetrievalModelBM25 rm, double idfwgt, int tf,
+			double doclen, double avglen) {
+		double avglend = (doclen / avglen);
+		double den = rm.k1 * ((1 - rm.b) + rm.b * avglend);
+		double tfwgt = tf / (tf + den);
+		return tfwgt * idfwgt;
 	}
 
 	/**
@@ -281,23 +465,10 @@ public class QryopSlScore extends QryopSl {
 
 		// Evaluate the query argument.
 		
-		QryResult result = args.get(0).evaluate(r);
-		this.cmutf = result.invertedList.ctf;
-		this.field = result.invertedList.field;
-		RetreivalModelIndri rm = (RetreivalModelIndri) r;			
-			
-			Vector<InvList.DocPosting> posting = new Vector<InvList.DocPosting>();
-			posting = result.invertedList.postings;
-			for (int j = 0; j < posting.size(); j++) {
-				double tfq_d = posting.get(j).tf;
-				//double len_termC = QryEval.READER.getSumTotalTermFreq(result.invertedList.field); 
-				double pMLE_qiC = result.invertedList.ctf / (float)QryEval.READER.getSumTotalTermFreq(result.invertedList.field);
-				
-				double score = rm.lambda*((tfq_d +rm.mu *pMLE_qiC) / (QryEval.dls.getDocLength(result.invertedList.field,posting.get(j).docid) + rm.mu))
-						+ (1-rm.lambda)*pMLE_qiC;				
-				
-				result.docScores.add(posting.get(j).docid, score);	
-		}
+		QryResult result = prepareScoring(r);
+
+		if (!this.lazy)
+			addScores(result.docScores);
 		return result;
 
 	}
@@ -323,29 +494,35 @@ public class QryopSlScore extends QryopSl {
 			QryResult titleField = getFieldTerms(r, "title");
 			QryResult inlinkField = getFieldTerms(r, "inlink");
 
+			// The loop reads the lists' arrays, so copy their postings
+			// out of the index once, here.
+			result.invertedList.materialize();
+			if (result.invertedList.df > 0) {
+				titleField.invertedList.materialize();
+				inlinkField.invertedList.materialize();
+			}
+
 			// Each pass of the loop computes a score for one document. Note:
 			// If the evaluate operation above returned a score list (which is
 			// very possible), this loop gets skipped.
 
 			for (int i = 0; i < result.invertedList.df; i++) {
 
-				int score = result.invertedList.postings.get(i).tf;
+				int score = result.invertedList.getTf(i);
 
 				if ((titleField.invertedList.df != 0)
 						&& titleField.invertedList
-								.containsDocument(result.invertedList.postings
-										.get(i).docid)) {
+								.containsDocument(result.invertedList.getDocid(i))) {
 					score = score + 8;
 				}
 
 				if ((inlinkField.invertedList.df != 0)
 						&& inlinkField.invertedList
-								.containsDocument(result.invertedList.postings
-										.get(i).docid)) {
+								.containsDocument(result.invertedList.getDocid(i))) {
 					score = score + 16;
 				}
 
-				result.docScores.add(result.invertedList.postings.get(i).docid,
+				result.docScores.add(result.invertedList.getDocid(i),
 						(score));
 
 			}
@@ -366,25 +543,25 @@ public class QryopSlScore extends QryopSl {
 	 */
 	public QryResult normalizeScores(QryResult result) {
 		double mean = 0.0;
-		for (int q = 0; q < result.docScores.scores.size(); q++) {
-			mean += result.docScores.scores.get(q).getScore();
+		for (int q = 0; q < result.docScores.size(); q++) {
+			mean += result.docScores.getDocidScore(q);
 		}
-		mean = mean / result.docScores.scores.size();
+		mean = mean / result.docScores.size();
 
 		double standardDevn = 0.0;
-		for (int q = 0; q < result.docScores.scores.size(); q++) {
-			standardDevn += (result.docScores.scores.get(q).getScore() - mean)
-					* (result.docScores.scores.get(q).getScore() - mean);
+		for (int q = 0; q < result.docScores.size(); q++) {
+			standardDevn += (result.docScores.getDocidScore(q) - mean)
+					* (result.docScores.getDocidScore(q) - mean);
 		}
-		standardDevn = Math.sqrt(standardDevn / result.docScores.scores.size());
+		standardDevn = Math.sqrt(standardDevn / result.docScores.size());
 
 		ScoreList scorelist = new ScoreList();
 
-		for (int q = 0; q < result.docScores.scores.size(); q++) {
+		for (int q = 0; q < result.docScores.size(); q++) {
 			scorelist
-					.add(result.docScores.scores.get(q).getDocID(),
-							((result.docScores.scores.get(q).getScore() - mean) / standardDevn) + 100);
-			if (((result.docScores.scores.get(q).getScore() - mean) / standardDevn) + 100 < 0) {
+					.add(result.docScores.getDocid(q),
+							((result.docScores.getDocidScore(q) - mean) / standardDevn) + 100);
+			if (((result.docScores.getDocidScore(q) - mean) / standardDevn) + 100 < 0) {
 				System.out.println("Negative score values");
 			}
 		}
@@ -436,17 +613,76 @@ public class QryopSlScore extends QryopSl {
 			throws IOException {
 
 		if (r instanceof RetreivalModelIndri){
-			RetreivalModelIndri rm = (RetreivalModelIndri)r;
-			 
-		double pMLE_qiC = this.cmutf / (float)QryEval.READER.getSumTotalTermFreq(this.field);		
-		double score = rm.lambda*((rm.mu * pMLE_qiC)/ (QryEval.dls.getDocLength(this.field,(int)docid) + rm.mu))
-				+ (1-rm.lambda)*pMLE_qiC;	
-		return score;
+			return this.smoothing.defaultScore((int) docid);
 		} else
 
 		return 0.0;
 	}
 
+	/**
+	 * The logarithm of the default score. Under Indri it comes from the
+	 * term's smoothing constants and the field's tabulated log smoothing
+	 * factors, without calling Math.log.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @param docid
+	 *            The internal id of the document that needs a default score.
+	 * @return The logarithm of the default score.
+	 */
+	public double getDefaultLogScore(RetrievalModel r, long docid)
+			throws IOException {
+
+		if (r instanceof RetreivalModelIndri)
+			return this.smoothing.defaultLogScore((int) docid);
+		return super.getDefaultLogScore(r, docid);
+	}
+
+	/**
+	 * The default scores of a block of documents. Under Indri they are
+	 * computed in one loop over the block (see IndriSmoothing).
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @param docids
+	 *            The internal ids of the documents.
+	 * @param n
+	 *            The number of documents in the block.
+	 * @param scores
+	 *            Receives the default score of docids[i] in scores[i].
+	 * @throws IOException
+	 */
+	public void getDefaultScores(RetrievalModel r, int[] docids, int n,
+			double[] scores) throws IOException {
+
+		if (r instanceof RetreivalModelIndri)
+			this.smoothing.defaultScores(docids, n, scores);
+		else
+			super.getDefaultScores(r, docids, n, scores);
+	}
+
+	/**
+	 * The logarithms of the default scores of a block of documents.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @param docids
+	 *            The internal ids of the documents.
+	 * @param n
+	 *            The number of documents in the block.
+	 * @param scores
+	 *            Receives the log default score of docids[i] in scores[i].
+	 * @throws IOException
+	 */
+	public void getDefaultLogScores(RetrievalModel r, int[] docids, int n,
+			double[] scores) throws IOException {
+
+		if (r instanceof RetreivalModelIndri)
+			this.smoothing.defaultLogScores(docids, n, scores);
+		else
+			super.getDefaultLogScores(r, docids, n, scores);
+	}
+
 	/**
 	 * Return a string version of this query operator.
 	 * 
@@ -1,9 +1,5 @@
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Arrays;
 
 
 public class QryopSlWand extends QryopSl {
@@ -62,57 +58,59 @@ public class QryopSlWand extends QryopSl {
 	 * @return The result of evaluating the query.
 	 * @throws IOException
 	 */
-public QryResult evaluateIndri(RetrievalModel r) throws IOException{
+public QryResult evaluateIndri(final RetrievalModel r) throws IOException{
 		
-		allocDaaTPtrs(r);
+		// Term arguments are scored as the blocks reach them, so no
+		// score list is built for them.
+
+		allocDaaTPtrs(r, true);
 		QryResult result = new QryResult();
 
-		Integer[] invListIterator = new Integer[this.args.size()];
-		double totalWgt = 0.0;
-		//Merge all the list to get de-duped list of all docids that can be present
-		Set<ScoreList.ScoreListEntry> mergedSet = new HashSet<ScoreList.ScoreListEntry>();
-		for (int w = 0; w < this.args.size(); w++) {
-			List<ScoreList.ScoreListEntry> list1 = this.daatPtrs.get(w).scoreList.scores;
-			mergedSet.addAll(list1);
-			totalWgt += this.args.get(w).weight;
-		}
-		List<ScoreList.ScoreListEntry> mergedList = new ArrayList<ScoreList.ScoreListEntry>(
-				mergedSet);
-		Collections.sort(mergedList, new QryopSlOR.docSort());
-		
-		for (int i =0;i<this.daatPtrs.size();i++){
-			invListIterator[i] = 0;
-		}
+		// Each argument's share of the total weight, computed once instead
+		// of once per document.
 
-//		double termCount =  1/(double)this.args.size();
-		
-		for (int a = 0; a < mergedList.size(); a++) {
-			int docida = mergedList.get(a).getDocID();
-			double totalscore = 1.0;
-			for (int b = 0; b < this.daatPtrs.size(); b++) {
-				
-				DaaTPtr ptrb = this.daatPtrs.get(b);	
-				if (ptrb.scoreList.scores.size() <= invListIterator[b]) {
-					totalscore *= Math.pow(((QryopSl)(this.args.get(b))).getDefaultScore(r, docida), (this.args.get(b).weight/totalWgt));
-					continue;
-				}	
-				
-				int docidb = ptrb.scoreList.getDocid(invListIterator[b]);
-				
-				if (docida == docidb) {
-					totalscore *=  Math.pow(ptrb.scoreList.getDocidScore(invListIterator[b]),(this.args.get(b).weight/totalWgt));
-					//totalscore *=  Math.pow(ptrb.scoreList.getDocidScore(invListIterator[b]), (this.args.get(b).weight/totalWgt));
-					invListIterator[b]++;
-				} else {
-					double defaultscore = 1.0;
-					defaultscore = Math.pow(((QryopSl)(this.args.get(b))).getDefaultScore(r, docida), (this.args.get(b).weight/totalWgt));
-					totalscore *= defaultscore;					
+		final double[] weights = normalizedWeights();
+		final boolean logSpace = ((RetreivalModelIndri) r).logSpace;
+
+		// Each document is scored on its own, so the docid space can be
+		// split into ranges that are evaluated separately.
+
+		result.docScores = scoreRanges(new RangeScorer() {
+			public void score(int lo, int hi, ScoreList scores) throws IOException {
+
+				//walk the union of all arguments a block at a time; a
+				//document missing from an argument gets that argument's
+				//default score
+				ScoreBlock block = scoreBlocksOfDaaTPtrs(r, lo, hi, logSpace);
+				double[][] argScores = block.scores;
+				int n;
+
+				while ((n = block.next()) > 0) {
+					for (int i = 0; i < n; i++) {
+
+						// In log space the arguments' scores are log
+						// probabilities, and the score is their weighted
+						// sum. An argument of weight 0 is skipped, as
+						// Math.pow(p, 0) is 1 even for p = 0.
+
+						if (logSpace) {
+							double logScore = 0.0;
+							for (int b = 0; b < argScores.length; b++)
+								if (weights[b] != 0)
+									logScore += weights[b] * argScores[b][i];
+							scores.add(block.docids[i], logScore);
+							continue;
+						}
+
+						double totalscore = 1.0;
+						for (int b = 0; b < argScores.length; b++)
+							totalscore *= Math.pow(argScores[b][i], weights[b]);
+						scores.add(block.docids[i], totalscore);
+					}
 				}
-				
 			}
-			result.docScores.add(docida, totalscore);
-		
-		}
+		});
+		freeDaaTPtrs();
 		return result;
 	}
 
@@ -139,6 +137,96 @@ public double getDefaultScore(RetrievalModel r, long docid)
 	return 0.0;
 }
 
+/**
+ * The default scores of a block of documents under Indri, computed from
+ * the arguments' default scores for the whole block.
+ * 
+ * @param r
+ *            A retrieval model that controls how the operator behaves.
+ * @param docids
+ *            The internal ids of the documents.
+ * @param n
+ *            The number of documents in the block.
+ * @param scores
+ *            Receives the default score of docids[i] in scores[i].
+ * @throws IOException
+ */
+public void getDefaultScores(RetrievalModel r, int[] docids, int n,
+		double[] scores) throws IOException {
+
+	if (!(r instanceof RetreivalModelIndri)) {
+		super.getDefaultScores(r, docids, n, scores);
+		return;
+	}
+
+	double[] weights = normalizedWeights();
+	double[] argScores = new double[n];
+	Arrays.fill(scores, 0, n, 1.0);
+	for (int k = 0; k < this.args.size(); k++) {
+		((QryopSl)(this.args.get(k))).getDefaultScores(r, docids, n, argScores);
+		for (int i = 0; i < n; i++)
+			scores[i] *= Math.pow(argScores[i], weights[k]);
+	}
+}
+
+/**
+ * The logarithms of the default scores of a block of documents under
+ * Indri.
+ * 
+ * @param r
+ *            A retrieval model that controls how the operator behaves.
+ * @param docids
+ *            The internal ids of the documents.
+ * @param n
+ *            The number of documents in the block.
+ * @param scores
+ *            Receives the log default score of docids[i] in scores[i].
+ * @throws IOException
+ */
+public void getDefaultLogScores(RetrievalModel r, int[] docids, int n,
+		double[] scores) throws IOException {
+
+	if (!(r instanceof RetreivalModelIndri)) {
+		super.getDefaultLogScores(r, docids, n, scores);
+		return;
+	}
+
+	double[] weights = normalizedWeights();
+	double[] argScores = new double[n];
+	Arrays.fill(scores, 0, n, 0.0);
+	for (int k = 0; k < this.args.size(); k++) {
+		if (weights[k] == 0)
+			continue;
+		((QryopSl)(this.args.get(k))).getDefaultLogScores(r, docids, n, argScores);
+		for (int i = 0; i < n; i++)
+			scores[i] += weights[k] * argScores[i];
+	}
+}
+
+/**
+ * The logarithm of the default score under Indri: the arguments' log
+ * default scores, weighted by their share of the total weight.
+ * 
+ * @param r
+ *            A retrieval model that controls how the operator behaves.
+ * @param docid
+ *            The internal id of the document that needs a default score.
+ * @return The logarithm of the default score.
+ */
+public double getDefaultLogScore(RetrievalModel r, long docid)
+		throws IOException {
+
+	if (!(r instanceof RetreivalModelIndri))
+		return super.getDefaultLogScore(r, docid);
+
+	double[] weights = normalizedWeights();
+	double logScore = 0.0;
+	for (int i = 0; i < this.args.size(); i++)
+		if (weights[i] != 0)
+			logScore += weights[i] * ((QryopSl)(this.args.get(i))).getDefaultLogScore(r, docid);
+	return logScore;
+}
+
 /*
  * Return a string version of this query operator.
  * 
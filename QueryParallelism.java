@@ -0,0 +1,311 @@
+/**
+ *  QueryParallelism lets one query evaluate the arguments of its
+ *  operators concurrently.  Each query gets its own QueryParallelism,
+ *  which shares a fork-join pool with the other queries of a batch but
+ *  has its own budget:  the number of tasks the query may have running
+ *  on the pool at once.  When the budget is used up, tasks run in the
+ *  calling thread, as they would without parallelism.  A long query
+ *  therefore gets lower latency, and a batch of many queries cannot
+ *  flood the pool.
+ *
+ *  A QueryParallelism may also split the docid space into contiguous
+ *  ranges.  Operators that score each document independently of the
+ *  others (see QryopSl.scoreRanges) score each range as a separate
+ *  task.  The ranges follow index segment boundaries where possible.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.index.*;
+
+public class QueryParallelism {
+
+  private ForkJoinPool pool;
+  private AtomicInteger budget;
+
+  //  Range i is [bounds[i], bounds[i+1]).
+
+  private int[] bounds;
+
+  /**
+   *  Constructor.
+   *  @param pool The pool that runs forked tasks.
+   *  @param budget The number of tasks this query may have running on
+   *  the pool at once.
+   */
+  public QueryParallelism(ForkJoinPool pool, int budget) {
+    this (pool, budget, null);
+  }
+
+  /**
+   *  Constructor.
+   *  @param pool The pool that runs forked tasks.
+   *  @param budget The number of tasks this query may have running on
+   *  the pool at once.
+   *  @param bounds The docid range boundaries (see docRanges), or null
+   *  to score the docid space as one range.
+   */
+  public QueryParallelism(ForkJoinPool pool, int budget, int[] bounds) {
+    this.pool = pool;
+    this.budget = new AtomicInteger (budget);
+    this.bounds = (bounds != null) ? bounds : new int[] { 0, Integer.MAX_VALUE };
+  }
+
+  /**
+   *  Split the docid space of an index into about n contiguous ranges
+   *  of similar size.  Ranges start at segment boundaries, unless there
+   *  are fewer segments than ranges, in which case the docid space is
+   *  also cut evenly.
+   *  @param reader The index reader.
+   *  @param n The number of ranges wanted.
+   *  @return The range boundaries:  0, the start of each later range,
+   *  and Integer.MAX_VALUE.
+   */
+  public static int[] docRanges(IndexReader reader, int n) {
+
+    int maxDoc = reader.maxDoc();
+    n = Math.max (n, 1);
+
+    //  Group whole segments while there are enough of them.
+
+    SortedSet<Integer> starts = new TreeSet<Integer>();
+    int target = (maxDoc + n - 1) / n;
+    int rangeStart = 0;
+
+    starts.add (0);
+
+    for (AtomicReaderContext leaf : reader.leaves()) {
+      if (leaf.docBase - rangeStart >= target) {
+	starts.add (leaf.docBase);
+	rangeStart = leaf.docBase;
+      }
+    }
+
+    //  Too few segments:  cut the docid space evenly.
+
+    if (starts.size() < n)
+      for (int i = 1; i < n; i++)
+	starts.add ((int) ((long) maxDoc * i / n));
+
+    int[] bounds = new int[starts.size() + 1];
+    int i = 0;
+
+    for (int start : starts)
+      bounds[i++] = start;
+
+    bounds[i] = Integer.MAX_VALUE;
+    return bounds;
+  }
+
+  /**
+   *  Get the number of docid ranges.
+   *  @return The number of ranges.
+   */
+  public int rangeCount() {
+    return this.bounds.length - 1;
+  }
+
+  /**
+   *  Get the first docid of a range.
+   *  @param i The index of the range.
+   *  @return The docid.
+   */
+  public int rangeStart(int i) {
+    return this.bounds[i];
+  }
+
+  /**
+   *  Get the docid just past the end of a range.
+   *  @param i The index of the range.
+   *  @return The docid.
+   */
+  public int rangeEnd(int i) {
+    return this.bounds[i + 1];
+  }
+
+  /**
+   *  Evaluate query arguments, forking as many of them as the budget
+   *  allows.
+   *  @param args The query arguments.
+   *  @param r A retrieval model that controls how the operators behave.
+   *  @param materialize If true, the inverted list of each result is
+   *  materialized as part of its evaluation.
+   *  @return The results, in argument order.
+   *  @throws IOException
+   */
+  public List<QryResult> evaluate(List<Qryop> args, final RetrievalModel r,
+				  final boolean materialize) throws IOException {
+
+    List<Callable<QryResult>> tasks = new ArrayList<Callable<QryResult>>();
+
+    for (final Qryop arg : args)
+      tasks.add (new Callable<QryResult>() {
+	  public QryResult call () throws IOException {
+	    QryResult result = arg.evaluate (r);
+
+	    if (materialize)
+	      result.invertedList.materialize ();
+
+	    return result;
+	  }
+	});
+
+    return invokeAll (tasks);
+  }
+
+  /**
+   *  Run tasks, forking as many of them as the budget allows.  The
+   *  first task always runs in the calling thread, which would
+   *  otherwise just wait.  Forked tasks are joined, so a caller that is
+   *  itself a task of the pool (e.g., a nested operator) helps run the
+   *  pool's queued tasks instead of blocking one of its threads.
+   *  @param tasks The tasks.
+   *  @return The results, in task order.
+   *  @throws IOException
+   */
+  public <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+
+    int n = tasks.size();
+    List<T> results = new ArrayList<T>(Collections.<T>nCopies (n, null));
+    List<Task<T>> forked = new ArrayList<Task<T>>(n);
+    boolean completed = false;
+
+    try {
+      for (int i = 0; i < n; i++)
+	forked.add ((i > 0 && acquire ()) ? fork (new Task<T>(tasks.get(i))) : null);
+
+      for (int i = 0; i < n; i++)
+	if (forked.get(i) == null)
+	  results.set (i, call (tasks.get(i)));
+
+      for (int i = 0; i < n; i++)
+	if (forked.get(i) != null)
+	  results.set (i, forked.get(i).result ());
+
+      completed = true;
+    } finally {
+
+      //  A failed query does not wait for its other tasks.  Tasks that
+      //  have not started are withdrawn; tasks that are running give
+      //  their budget back when they finish.
+
+      if (! completed)
+	for (int i = 0; i < forked.size(); i++)
+	  if (forked.get(i) != null)
+	    forked.get(i).withdraw ();
+    }
+
+    return results;
+  }
+
+  private boolean acquire () {
+
+    while (true) {
+      int available = this.budget.get ();
+
+      if (available <= 0)
+	return false;
+
+      if (this.budget.compareAndSet (available, available - 1))
+	return true;
+    }
+  }
+
+  //  Start a task:  on the current worker's queue if the caller is a
+  //  task of the pool, otherwise as an external submission.
+
+  private <T> Task<T> fork (Task<T> task) {
+
+    if (ForkJoinTask.getPool () == this.pool)
+      task.fork ();
+    else
+      this.pool.execute (task);
+
+    return task;
+  }
+
+  private static <T> T call (Callable<T> task) throws IOException {
+
+    try {
+      return task.call ();
+    } catch (Exception e) {
+      throw rethrow (e);
+    }
+  }
+
+  //  A forked task.  It gives back its unit of budget when it finishes,
+  //  whether it succeeds or fails.  Its failure is kept and rethrown by
+  //  result, rather than thrown through the pool.  Exactly one of run
+  //  and withdraw claims the task, so its budget is given back once.
+
+  private class Task<T> extends RecursiveTask<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private Callable<T> callable;
+    private AtomicBoolean claimed = new AtomicBoolean ();
+    private Throwable failure = null;
+
+    Task (Callable<T> callable) {
+      this.callable = callable;
+    }
+
+    protected T compute () {
+
+      if (! this.claimed.compareAndSet (false, true))
+	return null;			// Withdrawn before it started.
+
+      try {
+	return this.callable.call ();
+      } catch (Throwable e) {
+	this.failure = e;
+	return null;
+      } finally {
+	budget.incrementAndGet ();
+      }
+    }
+
+    //  Wait for the task (helping the pool while waiting, if the caller
+    //  is one of its threads) and get its result.
+
+    T result () throws IOException {
+
+      T value = join ();
+
+      if (this.failure != null)
+	throw rethrow (this.failure);
+
+      return value;
+    }
+
+    //  Keep the task from running if it has not started yet.
+
+    void withdraw () {
+
+      if (this.claimed.compareAndSet (false, true)) {
+	cancel (false);
+	budget.incrementAndGet ();
+      }
+    }
+  }
+
+  //  Rethrow an unchecked exception or error, and return any other
+  //  exception as an IOException for the caller to throw.
+
+  private static IOException rethrow (Throwable cause) {
+
+    if (cause instanceof IOException)
+      return (IOException) cause;
+    if (cause instanceof RuntimeException)
+      throw (RuntimeException) cause;
+    if (cause instanceof Error)
+      throw (Error) cause;
+    return new IOException (cause);
+  }
+}
@@ -0,0 +1,179 @@
+/**
+ *  QueryResultCache keeps the ranked results of recently evaluated
+ *  queries, so that a query that is run again (the same topic in a
+ *  parameter sweep, or a popular query) is answered without being
+ *  evaluated.
+ *
+ *  A query is identified by the canonical form of its parsed tree
+ *  (Qryop.toString), the retrieval model and its parameters
+ *  (RetrievalModel.toString), how it is evaluated (the strategy and
+ *  its limits, e.g. TaatEvaluator.toString), and the number of results
+ *  kept.  Results that depend on timing (e.g., score at a time with a
+ *  time budget) should not be cached.  The
+ *  cache holds at most a fixed number of queries and evicts the least
+ *  recently used one.  Results belong to one version of the index:
+ *  when a different IndexReader (or one with different deletions) is
+ *  used, the cache is emptied.  The object can be shared by several
+ *  threads.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.*;
+
+public class QueryResultCache {
+
+  /**
+   *  The default number of queries whose results are cached.
+   */
+  public static final int DEFAULT_SIZE = 1000;
+
+  private Map<String, List<QryEval.scoreArray>> results;
+  private Object readerKey = null;
+
+  private AtomicLong hits = new AtomicLong ();
+  private AtomicLong misses = new AtomicLong ();
+  private AtomicLong evictions = new AtomicLong ();
+  private AtomicLong invalidations = new AtomicLong ();
+
+  /**
+   *  Constructor.
+   *  @param capacity The number of queries whose results are cached.
+   */
+  public QueryResultCache(final int capacity) {
+
+    this.results =
+      new LinkedHashMap<String, List<QryEval.scoreArray>>(16, 0.75f, true) {
+	protected boolean removeEldestEntry(
+	  Map.Entry<String, List<QryEval.scoreArray>> eldest) {
+
+	  if (size() <= capacity)
+	    return false;
+
+	  evictions.incrementAndGet ();
+	  return true;
+	}
+      };
+  }
+
+  /**
+   *  Get the key of a query.
+   *  @param query The parsed query.
+   *  @param r The retrieval model the query is evaluated with.
+   *  @param evaluation How the query is evaluated:  the strategy and
+   *  its parameters.
+   *  @param resultCount The number of results kept.
+   *  @return The key.
+   */
+  public static String key(Qryop query, RetrievalModel r, String evaluation,
+			   int resultCount) {
+    return r.toString () + "\t" + evaluation + "\t" + resultCount + "\t" +
+      query.toString ();
+  }
+
+  /**
+   *  Get the cached results of a query.
+   *  @param reader The index the query is evaluated on.
+   *  @param key The query's key.
+   *  @return The results, best first, or null if they are not cached.
+   */
+  public List<QryEval.scoreArray> get(IndexReader reader, String key) {
+
+    List<QryEval.scoreArray> cached;
+
+    synchronized (this.results) {
+      checkReader (reader);
+      cached = this.results.get (key);
+    }
+
+    (cached != null ? this.hits : this.misses).incrementAndGet ();
+    return cached;
+  }
+
+  /**
+   *  Cache the results of a query.
+   *  @param reader The index the query was evaluated on.
+   *  @param key The query's key.
+   *  @param ranking The results, best first.
+   *  @return void
+   */
+  public void put(IndexReader reader, String key,
+		  List<QryEval.scoreArray> ranking) {
+
+    List<QryEval.scoreArray> copy = Collections.unmodifiableList (
+      new ArrayList<QryEval.scoreArray>(ranking));
+
+    synchronized (this.results) {
+      checkReader (reader);
+      this.results.put (key, copy);
+    }
+  }
+
+  //  Empty the cache if the index changed since results were cached.
+
+  private void checkReader (IndexReader reader) {
+
+    Object key = reader.getCombinedCoreAndDeletesKey ();
+
+    if (key == this.readerKey)
+      return;
+
+    if (! this.results.isEmpty ())
+      this.invalidations.incrementAndGet ();
+
+    this.results.clear ();
+    this.readerKey = key;
+  }
+
+  /**
+   *  Get the number of queries answered from the cache.
+   *  @return The count.
+   */
+  public long hits() {
+    return this.hits.get ();
+  }
+
+  /**
+   *  Get the number of queries that were not in the cache.
+   *  @return The count.
+   */
+  public long misses() {
+    return this.misses.get ();
+  }
+
+  /**
+   *  Get the number of queries evicted to make room for others.
+   *  @return The count.
+   */
+  public long evictions() {
+    return this.evictions.get ();
+  }
+
+  /**
+   *  Get the number of times the index changed and the cache was emptied.
+   *  @return The count.
+   */
+  public long invalidations() {
+    return this.invalidations.get ();
+  }
+
+  /**
+   *  Describe the cache's activity, e.g., for the end of a batch.
+   *  @return One line with the cache's size and counters.
+   */
+  public String report() {
+
+    int size;
+
+    synchronized (this.results) {
+      size = this.results.size ();
+    }
+
+    return "Query result cache:  " + size + " queries, " +
+      hits () + " hits, " + misses () + " misses, " +
+      evictions () + " evictions, " + invalidations () + " invalidations\n";
+  }
+}
@@ -1,8 +1,26 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 public class RetreivalModelIndri extends RetrievalModel{
 	
 	double mu =2500;
 	double lambda = 0.4;
+
+	/**
+	 * If true, every operator scores documents with log probabilities,
+	 * from #SCORE up to the root of the query: #AND and #WAND add their
+	 * arguments' weighted logs instead of raising each probability to its
+	 * weight. The results hold the log probabilities, which rank
+	 * documents as the probabilities do.
+	 */
+	boolean logSpace = false;
+
+	/**
+	 * The log smoothing factors of each field, by document length (see
+	 * logSmoothing).
+	 */
+	private Map<DocLengthStore.FieldLengths, double[]> logSmoothing =
+			new IdentityHashMap<DocLengthStore.FieldLengths, double[]>();
 	
 	 /**
 	   * Set a retrieval model parameter.
@@ -34,6 +52,38 @@ public class RetreivalModelIndri extends RetrievalModel{
 		  this.mu = mu;
 		  this.lambda = lambda;
 	  }
+
+	  public RetreivalModelIndri(double mu, double lambda, boolean logSpace){
+		  this(mu, lambda);
+		  this.logSpace = logSpace;
+	  }
+
+	  /**
+	   * The logarithm of the length-dependent factor of a default score,
+	   * log(lambda * mu / (length + mu) + 1 - lambda), for every length
+	   * of a field, indexed by length. A field's table is computed the
+	   * first time it is asked for and shared by all of its terms.
+	   * @param lengths The lengths of the field.
+	   * @return The table.
+	   */
+	  synchronized double[] logSmoothing(DocLengthStore.FieldLengths lengths) {
+		  double[] table = logSmoothing.get(lengths);
+		  if (table == null) {
+			  int maxLength = 0;
+			  for (int docid = 0; docid < lengths.size(); docid++)
+				  maxLength = Math.max(maxLength, lengths.get(docid));
+			  table = new double[maxLength + 1];
+			  for (int length = 0; length <= maxLength; length++)
+				  table[length] = Math.log(lambda * mu / (length + mu) + (1 - lambda));
+			  logSmoothing.put(lengths, table);
+		  }
+		  return table;
+	  }
+
+	  public String toString(){
+		  return "Indri(mu=" + mu + ", lambda=" + lambda
+				  + (logSpace ? ", logSpace" : "") + ")";
+	  }
 }
 
 
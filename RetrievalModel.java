@@ -25,4 +25,14 @@ public abstract class RetrievalModel {
    *  @return true if the parameter is set successfully, false otherwise.
    */
   public abstract boolean setParameter (String parameterName, String value);
+
+  /**
+   *  Describe the retrieval model and its parameters.  Two models that
+   *  score every query the same way have the same description, so it
+   *  can be part of a cache key.  Models with parameters override it.
+   *  @return The model's name.
+   */
+  public String toString () {
+    return getClass().getSimpleName();
+  }
 }
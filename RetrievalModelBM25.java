@@ -37,4 +37,8 @@ public class RetrievalModelBM25 extends RetrievalModel{
 		this.k1 = k1;
 		this.k3 = k3;
 	  }
+
+	  public String toString(){
+		return "BM25(b=" + b + ", k1=" + k1 + ", k3=" + k3 + ")";
+	  }
 }
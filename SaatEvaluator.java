@@ -0,0 +1,188 @@
+/**
+ *  SaatEvaluator evaluates flat BM25 #SUM queries score at a time, from
+ *  an impact-ordered index (see ImpactIndex).  The segments of all of
+ *  the query's terms are processed in order of their contribution to
+ *  the score (the segment's impact times the term's query weight),
+ *  highest first, and each segment's postings are added to the
+ *  documents' accumulators.  The documents that matter most are thus
+ *  scored first, so evaluation can stop early, after a budget of
+ *  postings or of time, and still return a good ranking:  "anytime"
+ *  ranking, for bounded latency when the system is busy.
+ *
+ *  Scores are sums of quantized impacts, so they approximate the exact
+ *  BM25 scores even when the whole query is processed.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class SaatEvaluator {
+
+  //  How many postings are processed between looks at the clock.
+
+  private static final int CLOCK_INTERVAL = 4096;
+
+  private ImpactIndex index;
+  private long postingsBudget;
+  private long timeBudgetMillis;
+
+  /**
+   *  Constructor.
+   *  @param index The impact-ordered index.
+   *  @param postingsBudget The largest number of postings a query may
+   *  process, or 0 for no limit.
+   *  @param timeBudgetMillis The longest time a query may take to
+   *  process its postings, in milliseconds, or 0 for no limit.
+   */
+  public SaatEvaluator(ImpactIndex index, long postingsBudget,
+		       long timeBudgetMillis) {
+    this.index = index;
+    this.postingsBudget = postingsBudget;
+    this.timeBudgetMillis = timeBudgetMillis;
+  }
+
+  /**
+   *  Get a description of the evaluator's parameters.
+   *  @return The description.
+   */
+  public String toString() {
+    return "SaatEvaluator(" + this.index + ", postingsBudget=" +
+      this.postingsBudget + ", timeBudgetMillis=" + this.timeBudgetMillis +
+      ")";
+  }
+
+  /**
+   *  Whether the evaluator has a time budget.  Its results then depend
+   *  on how fast the query runs, so they may differ from run to run.
+   *  @return True if it does.
+   */
+  public boolean hasTimeBudget() {
+    return this.timeBudgetMillis > 0;
+  }
+
+  /**
+   *  Whether a query can be evaluated score at a time:  a #SUM of terms
+   *  under BM25, with the k1 and b the impacts were computed with.
+   *  @param q The parsed query.
+   *  @param r The retrieval model.
+   *  @return True if it can.
+   */
+  public boolean chooses(Qryop q, RetrievalModel r) {
+
+    if (! (q instanceof QryopIlSum) || ! (r instanceof RetrievalModelBM25) ||
+	! this.index.matches ((RetrievalModelBM25) r) || q.args.size () == 0)
+      return false;
+
+    for (int i=0; i<q.args.size(); i++)
+      if (! (termOf (q.args.get(i)) instanceof QryopIlTerm))
+	return false;
+
+    return true;
+  }
+
+  /**
+   *  Evaluate a query score at a time.  The query must be one that
+   *  chooses accepts.
+   *  @param q The parsed query.
+   *  @param r The retrieval model.
+   *  @return The result, with the scored documents in docid order.
+   *  @throws IOException
+   */
+  public QryResult evaluate(Qryop q, RetrievalModel r) throws IOException {
+
+    long deadline = (this.timeBudgetMillis > 0) ?
+      System.nanoTime () + this.timeBudgetMillis * 1000000L : Long.MAX_VALUE;
+    long budget = (this.postingsBudget > 0) ?
+      this.postingsBudget : Long.MAX_VALUE;
+
+    //  BM25 weighs each argument by how often it occurs in the query.
+
+    double[] userwgt =
+      ((QryopIlSum) q).queryTermWeights ((RetrievalModelBM25) r);
+
+    //  Order the segments of all the terms by their contribution.
+
+    List<Segment> segments = new ArrayList<Segment>();
+
+    for (int i=0; i<q.args.size(); i++) {
+      QryopIlTerm term = (QryopIlTerm) termOf (q.args.get(i));
+      ImpactIndex.TermSegments ts =
+	this.index.segments (term.getTerm (), term.getField ());
+
+      if (ts == null)
+	continue;
+
+      for (int s = ts.first; s < ts.first + ts.count; s++)
+	segments.add (new Segment (s,
+	  this.index.score (this.index.impact (s)) * userwgt[i]));
+    }
+
+    Collections.sort (segments);
+
+    TaatEvaluator.Accumulators acc =
+      TaatEvaluator.borrow (QryEval.READER.maxDoc ());
+    QryResult result = new QryResult ();
+    long processed = 0;
+
+    //  The accumulators are cleared and returned even if evaluation
+    //  fails, so that the next query starts from empty accumulators.
+
+    try {
+      SEGMENTS:
+      for (Segment segment : segments) {
+	int length = this.index.length (segment.segment);
+
+	for (int j = 0; j < length; j++) {
+	  if (processed >= budget)
+	    break SEGMENTS;
+
+	  if ((processed % CLOCK_INTERVAL) == 0 &&
+	      processed > 0 && System.nanoTime () > deadline)
+	    break SEGMENTS;
+
+	  int doc = this.index.doc (segment.segment, j);
+
+	  if (! acc.has (doc))
+	    acc.touch (doc);
+
+	  acc.scores[doc] += segment.contribution;
+	  processed ++;
+	}
+      }
+    } finally {
+      acc.drain (result.docScores);
+      TaatEvaluator.giveBack (acc);
+    }
+
+    return result;
+  }
+
+  //  The term of an argument:  the argument itself, or the argument of a
+  //  #SCORE.
+
+  private static Qryop termOf (Qryop arg) {
+    if ((arg instanceof QryopSlScore) && (arg.args.size () == 1))
+      return arg.args.get (0);
+    return arg;
+  }
+
+  //  A segment of a query term and what each of its postings adds to a
+  //  document's score.  Segments sort by contribution, highest first.
+
+  private static class Segment implements Comparable<Segment> {
+
+    int segment;
+    double contribution;
+
+    Segment (int segment, double contribution) {
+      this.segment = segment;
+      this.contribution = contribution;
+    }
+
+    public int compareTo (Segment other) {
+      return Double.compare (other.contribution, this.contribution);
+    }
+  }
+}
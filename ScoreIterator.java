@@ -0,0 +1,94 @@
+/**
+ *  A ScoreIterator walks the scored documents of a query argument in
+ *  docid order, one document at a time.  It is the pull-based view of
+ *  a ScoreList:  a #SCORE operator can score its postings as the
+ *  consumer asks for them (see QryopSlScore.scoreIterator), so a
+ *  parent operator such as #SUM or #AND holds one cursor per argument
+ *  instead of a score list as long as each argument's inverted list.
+ *
+ *  A new iterator is positioned before its first document; call
+ *  nextDoc or advance before using docID or score.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+
+public abstract class ScoreIterator {
+
+  /**
+   *  Returned by nextDoc and advance when the iterator is exhausted.
+   */
+  public static final int NO_MORE_DOCS = InvListCursor.NO_MORE_DOCS;
+
+  /**
+   *  Get the current document id.
+   *  @return The internal document id, -1 before the first call to
+   *  nextDoc or advance, or NO_MORE_DOCS when the iterator is exhausted.
+   */
+  public abstract int docID();
+
+  /**
+   *  Move to the next document.
+   *  @return The new internal document id, or NO_MORE_DOCS.
+   *  @throws IOException
+   */
+  public abstract int nextDoc() throws IOException;
+
+  /**
+   *  Move to the first document whose id is greater than or equal to
+   *  target.  The iterator never moves backwards.
+   *  @param target The internal document id to look for.
+   *  @return The new internal document id, or NO_MORE_DOCS.
+   *  @throws IOException
+   */
+  public abstract int advance(int target) throws IOException;
+
+  /**
+   *  Get the score of the current document.
+   *  @return The score.
+   *  @throws IOException
+   */
+  public abstract double score() throws IOException;
+
+  /**
+   *  Get an iterator over the entries of a score list whose docids are
+   *  in [lo, hi).
+   *  @param scores The score list.
+   *  @param lo The first docid of the range.
+   *  @param hi The docid just past the end of the range.
+   *  @return The iterator.
+   */
+  public static ScoreIterator over(final ScoreList scores, int lo, int hi) {
+
+    final int start = scores.advance (0, lo);
+    final int end = scores.advance (start, hi);
+
+    return new ScoreIterator () {
+
+      private int n = start - 1;
+
+      public int docID () {
+	if (n < start)
+	  return -1;
+	return (n < end) ? scores.getDocid (n) : NO_MORE_DOCS;
+      }
+
+      public int nextDoc () {
+	if (n < end)
+	  n ++;
+	return docID ();
+      }
+
+      public int advance (int target) {
+	if (docID () < target)
+	  n = Math.min (scores.advance (Math.max (n, start), target), end);
+	return docID ();
+      }
+
+      public double score () {
+	return scores.getDocidScore (n);
+      }
+    };
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ *  ScoreIteratorUnion walks the union of several score iterators in
+ *  docid order.  It is the pull-based counterpart of ScoreListUnion:
+ *  a binary min-heap holds each non-exhausted iterator, keyed by its
+ *  current docid, and the iterators that contain the current document
+ *  stay on it until the next call to nextDoc, so the caller can ask
+ *  them for their scores.  Scores are computed only when asked for.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+
+public class ScoreIteratorUnion {
+
+  /**
+   *  Returned by nextDoc and docID when the union is exhausted.
+   */
+  public static final int NO_MORE_DOCS = ScoreIterator.NO_MORE_DOCS;
+
+  private ScoreIterator[] iterators;
+
+  //  The heap holds iterator ids, ordered by their current docid.
+
+  private int[] heap;
+  private int heapSize = 0;
+
+  //  The iterators that are on the current document.
+
+  private int[] matched;
+  private int matchedCount = 0;
+  private boolean[] isMatched;
+
+  private int docid = -1;
+  private boolean started = false;
+
+  /**
+   *  Constructor.
+   *  @param iterators The iterators to merge.  None may have been moved
+   *  yet.
+   */
+  public ScoreIteratorUnion(ScoreIterator[] iterators) {
+
+    int k = iterators.length;
+
+    this.iterators = iterators;
+    this.heap = new int[k];
+    this.matched = new int[k];
+    this.isMatched = new boolean[k];
+  }
+
+  /**
+   *  Get the current document of the union.
+   *  @return The internal document id, -1 before the first call to
+   *  nextDoc, or NO_MORE_DOCS when the union is exhausted.
+   */
+  public int docID() {
+    return this.docid;
+  }
+
+  /**
+   *  Move to the next document of the union.
+   *  @return The internal document id, or NO_MORE_DOCS.
+   *  @throws IOException
+   */
+  public int nextDoc() throws IOException {
+
+    //  Move the iterators that were on the previous document, or all
+    //  of them the first time.
+
+    if (! this.started) {
+      for (int i = 0; i < this.iterators.length; i++)
+	if (this.iterators[i].nextDoc () != NO_MORE_DOCS)
+	  push (i);
+
+      this.started = true;
+    }
+
+    for (int m = 0; m < this.matchedCount; m++) {
+      int i = this.matched[m];
+
+      this.isMatched[i] = false;
+
+      if (this.iterators[i].nextDoc () != NO_MORE_DOCS)
+	push (i);
+    }
+
+    this.matchedCount = 0;
+
+    if (this.heapSize == 0)
+      return (this.docid = NO_MORE_DOCS);
+
+    //  Pop every iterator on the smallest docid.
+
+    this.docid = this.iterators[this.heap[0]].docID ();
+
+    while ((this.heapSize > 0) &&
+	   (this.iterators[this.heap[0]].docID () == this.docid)) {
+      int i = this.heap[0];
+
+      this.matched[this.matchedCount++] = i;
+      this.isMatched[i] = true;
+      removeTop ();
+    }
+
+    return this.docid;
+  }
+
+  /**
+   *  Whether the i'th iterator contains the current document.
+   *  @param i The index of an iterator (in constructor order).
+   *  @return True if it does.
+   */
+  public boolean matches(int i) {
+    return this.isMatched[i];
+  }
+
+  /**
+   *  Get the score of the current document in the i'th iterator.
+   *  @param i The index of an iterator that matches the document.
+   *  @return The score.
+   *  @throws IOException
+   */
+  public double score(int i) throws IOException {
+    return this.iterators[i].score ();
+  }
+
+  /**
+   *  Get the number of iterators that contain the current document.
+   *  @return The number of iterators.
+   */
+  public int matchedCount() {
+    return this.matchedCount;
+  }
+
+  //  Heap maintenance.
+
+  private int key (int h) {
+    return this.iterators[this.heap[h]].docID ();
+  }
+
+  private void push (int i) {
+
+    int h = this.heapSize++;
+    int k = this.iterators[i].docID ();
+
+    while (h > 0) {
+      int parent = (h - 1) >>> 1;
+
+      if (key (parent) <= k)
+	break;
+
+      this.heap[h] = this.heap[parent];
+      h = parent;
+    }
+
+    this.heap[h] = i;
+  }
+
+  private void removeTop () {
+
+    this.heapSize --;
+
+    if (this.heapSize == 0)
+      return;
+
+    int i = this.heap[this.heapSize];
+    int k = this.iterators[i].docID ();
+    int h = 0;
+
+    while (true) {
+      int child = 2 * h + 1;
+
+      if (child >= this.heapSize)
+	break;
+
+      if ((child + 1 < this.heapSize) && (key (child + 1) < key (child)))
+	child ++;
+
+      if (k <= key (child))
+	break;
+
+      this.heap[h] = this.heap[child];
+      h = child;
+    }
+
+    this.heap[h] = i;
+  }
+}
@@ -2,6 +2,13 @@
  *  This class implements the document score list data structure
  *  and provides methods for accessing and manipulating them.
  *
+ *  Scores are stored in parallel primitive arrays (docids[n] has
+ *  score scores[n]) that grow geometrically, so a score list does not
+ *  allocate an object per document.  Query operators add entries in
+ *  docid order, which lets find and advance use binary search.  A
+ *  ScoreList has no shared state, so score lists that are no longer
+ *  being built can be read from several threads.
+ *
  *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
  */
 
@@ -11,46 +18,13 @@ public class ScoreList {
 
 	public int cumtf;
 	public String field;
-	static double matchedScoreValue = 0.0;
-  //  A little utilty class to create a <docid, score> object.
-
-  protected class ScoreListEntry {
-    private int docid;
-    private double score;
 
-  
-    public ScoreListEntry(int docid, double score) {
-      this.docid = docid;
-      this.score = score;
-    }
-    
-    protected double getScore()
-    {
-    	return this.score;
-    }
-    protected int getDocID()
-    {
-    	return this.docid;
-    }
-    @Override
-    public boolean equals(Object o)
-    {
-       
-       if (((ScoreListEntry)o).getDocID() == (this.docid)){
-    	   matchedScoreValue = ((ScoreListEntry)o).getScore();
-            	return true;
-       }
-       else
-    	   return false;
-        
-    }
-    @Override
-    public int hashCode() {
-         return docid;
-    }
-  }
+  //  Parallel arrays of <docid, score> pairs.  Only the first size
+  //  entries are valid.
 
-  List<ScoreListEntry> scores = new ArrayList<ScoreListEntry>();
+  int[] docids = new int[8];
+  double[] scores = new double[8];
+  int size = 0;
 
   /**
    *  Append a document score to a score list.
@@ -59,7 +33,47 @@ public class ScoreList {
    *  @return void
    */
   public void add(int docid, double score) {
-    scores.add(new ScoreListEntry(docid, score));
+
+    if (this.size == this.docids.length) {
+      int capacity = 2 * this.docids.length;
+      this.docids = Arrays.copyOf (this.docids, capacity);
+      this.scores = Arrays.copyOf (this.scores, capacity);
+    }
+
+    this.docids[this.size] = docid;
+    this.scores[this.size] = score;
+    this.size ++;
+  }
+
+  /**
+   *  Append all of the entries of another score list.  Its docids must
+   *  all be greater than the docids of this list.
+   *  @param other The score list to append.
+   *  @return void
+   */
+  public void addAll(ScoreList other) {
+
+    int capacity = this.docids.length;
+
+    while (capacity < this.size + other.size)
+      capacity *= 2;
+
+    if (capacity > this.docids.length) {
+      this.docids = Arrays.copyOf (this.docids, capacity);
+      this.scores = Arrays.copyOf (this.scores, capacity);
+    }
+
+    System.arraycopy (other.docids, 0, this.docids, this.size, other.size);
+    System.arraycopy (other.scores, 0, this.scores, this.size, other.size);
+    this.size += other.size;
+  }
+
+  /**
+   *  Get the number of documents in the score list.
+   *  @return The number of documents.
+   */
+  public int size() {
+    return this.size;
   }
 
   /**
@@ -67,8 +81,56 @@ public class ScoreList {
    *  @param n The index of the requested document.
    *  @return The internal document id.
    */
-  public int getDocid(int n) {	  
-    return this.scores.get(n).docid;    
+  public int getDocid(int n) {
+    return this.docids[n];
+  }
+
+  /**
+   *  Find the first entry at or after index from whose docid is
+   *  greater than or equal to target, galloping forward from "from"
+   *  and then doing a binary search.
+   *  @param from The index to start the search at.
+   *  @param target The internal document id to look for.
+   *  @return The index of the entry, or the list size if there is none.
+   */
+  public int advance(int from, int target) {
+
+    int lo = from - 1;
+    int step = 1;
+    int hi = from;
+
+    while ((hi < this.size) && (this.docids[hi] < target)) {
+      lo = hi;
+      hi = from + step;
+      step *= 2;
+    }
+
+    if (hi > this.size)
+      hi = this.size;
+
+    while (hi - lo > 1) {
+      int mid = (lo + hi) >>> 1;
+
+      if (this.docids[mid] < target)
+	lo = mid;
+      else
+	hi = mid;
+    }
+
+    return hi;
+  }
+
+  /**
+   *  Find a document in the score list with a binary search.  The
+   *  list must be in docid order.
+   *  @param docid The internal document id.
+   *  @return The index of the document, or -1 if it is not in the list.
+   */
+  public int find(int docid) {
+
+    int n = Arrays.binarySearch (this.docids, 0, this.size, docid);
+
+    return (n >= 0) ? n : -1;
   }
 
   /**
@@ -77,53 +139,49 @@ public class ScoreList {
    *  @return The document's score.
    */
   public double getDocidScore(int n) {
-    return this.scores.get(n).score;
+    return this.scores[n];
+  }
+
+  /**
+   *  Replace the score of the n'th document.
+   *  @param n The index of the document.
+   *  @param score The document's new score.
+   *  @return void
+   */
+  public void setDocidScore(int n, double score) {
+    this.scores[n] = score;
   }
-  
-//  public boolean updateDocidScore(int index, int docid, double score){
-//	  try
-//	  { 
-//		  double ms = this.containsElement(docid);
-//		  if(ms != -1){
-//			double prevScore = ms;
-//			double newScore =  score;	
-//			this.scores.set(index, new ScoreListEntry(docid, prevScore*newScore));
-//		  } else {
-//			  this.add(docid, score);
-//		  }
-//		  return true;
-//	  }catch(Exception e){
-//		  System.out.println("caught expetion while update docid score");
-//		  return false;  
-//	  } 
-  //}
-  
+
+  /**
+   *  Replace the n'th entry of the score list in place.
+   *  @param index The index of the entry.
+   *  @param docid The internal document id.
+   *  @param score The document's score.
+   *  @return true if the entry was updated, false if index is invalid.
+   */
   public boolean updateDocidScore(int index, int docid, double score){
-	  try
-	  { 	  
-			this.scores.set(index, new ScoreListEntry(docid, score));
-		 
-		  return true;
-	  }catch(Exception e){
+
+	  if (index < 0 || index >= this.size) {
 		  System.out.println("caught expetion while update docid score");
-		  return false;  
-	  } 
+		  return false;
+	  }
+
+	  this.docids[index] = docid;
+	  this.scores[index] = score;
+	  return true;
   }
-  
+
+  /**
+   *  Get the score of a document.
+   *  @param docid The internal document id.
+   *  @return The document's score, or -1.0 if it is not in the list.
+   */
   public double containsElement(int docid){
-	  try
-	  {
-		 if( this.scores.contains(new ScoreListEntry(docid, 0.0)))
-		  return matchedScoreValue;
-		 else
-			 return -1.0;
-	  }catch(Exception e){
-		  System.out.println("caught expetion while update docid score");
-		  return -1.0;  
-	  }
-	  
-	  
+
+	  int n = find(docid);
+
+	  return (n >= 0) ? this.scores[n] : -1.0;
   }
-  
-  
+
+
 }
@@ -0,0 +1,210 @@
+/**
+ *  ScoreListUnion walks the union of several score lists in docid
+ *  order.  It is a k-way merge:  a binary min-heap holds each
+ *  non-exhausted list, keyed by the docid of its next unread entry, so
+ *  moving to the next document of the union costs O(m log k), where m
+ *  is the number of lists that contain the document.  Disjunctive query
+ *  operators (#OR, #SUM, Indri's #AND, #WAND and #WSUM) use it instead of
+ *  building and sorting a set of every docid.
+ *
+ *  After nextDoc returns a document, matchedIndex(i) tells whether the
+ *  i'th list contains it, and where.  Moving through the union does not
+ *  allocate.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.util.*;
+
+public class ScoreListUnion {
+
+  /**
+   *  Returned by nextDoc and docID when the union is exhausted.
+   */
+  public static final int NO_MORE_DOCS = InvListCursor.NO_MORE_DOCS;
+
+  private ScoreList[] lists;
+
+  //  next[i] is the index of the next unread entry of list i, and
+  //  limit[i] is the index of the first entry past the docid range.
+
+  private int[] next;
+  private int[] limit;
+
+  //  The heap holds list ids; heapDocids[h] is the next docid of the
+  //  list at heap[h].  heap[0] has the smallest docid.
+
+  private int[] heap;
+  private int[] heapDocids;
+  private int heapSize = 0;
+
+  //  The lists that contain the current document, and the index of
+  //  the current document in each list (-1 for the other lists).
+
+  private int[] matched;
+  private int matchedCount = 0;
+  private int[] matchedIndex;
+
+  private int docid = -1;
+
+  /**
+   *  Constructor.
+   *  @param lists The score lists to merge.  Each must be in docid order.
+   */
+  public ScoreListUnion(List<ScoreList> lists) {
+    this (lists, 0, NO_MORE_DOCS);
+  }
+
+  /**
+   *  Constructor for the part of the union in a range of docids.
+   *  matchedIndex still reports indexes into the whole lists.
+   *  @param lists The score lists to merge.  Each must be in docid order.
+   *  @param lo The first docid of the range.
+   *  @param hi The docid just past the end of the range.
+   */
+  public ScoreListUnion(List<ScoreList> lists, int lo, int hi) {
+
+    int k = lists.size();
+
+    this.lists = lists.toArray (new ScoreList[k]);
+    this.next = new int[k];
+    this.limit = new int[k];
+    this.heap = new int[k];
+    this.heapDocids = new int[k];
+    this.matched = new int[k];
+    this.matchedIndex = new int[k];
+
+    Arrays.fill (this.matchedIndex, -1);
+
+    for (int i = 0; i < k; i++) {
+      this.next[i] = this.lists[i].advance (0, lo);
+      this.limit[i] = this.lists[i].advance (this.next[i], hi);
+
+      if (this.next[i] < this.limit[i])
+	push (i, this.lists[i].getDocid(this.next[i]));
+    }
+  }
+
+  /**
+   *  Get the current document of the union.
+   *  @return The internal document id, -1 before the first call to
+   *  nextDoc, or NO_MORE_DOCS when the union is exhausted.
+   */
+  public int docID() {
+    return this.docid;
+  }
+
+  /**
+   *  Move to the next document of the union.
+   *  @return The internal document id, or NO_MORE_DOCS.
+   */
+  public int nextDoc() {
+
+    //  Forget the lists that matched the previous document.
+
+    for (int m = 0; m < this.matchedCount; m++)
+      this.matchedIndex[this.matched[m]] = -1;
+
+    this.matchedCount = 0;
+
+    if (this.heapSize == 0)
+      return (this.docid = NO_MORE_DOCS);
+
+    //  Pop every list whose next entry is the smallest docid, and
+    //  push it back keyed by its following entry.
+
+    this.docid = this.heapDocids[0];
+
+    while ((this.heapSize > 0) && (this.heapDocids[0] == this.docid)) {
+      int i = this.heap[0];
+
+      this.matched[this.matchedCount++] = i;
+      this.matchedIndex[i] = this.next[i];
+      this.next[i] ++;
+
+      if (this.next[i] < this.limit[i])
+	replaceTop (this.lists[i].getDocid(this.next[i]));
+      else
+	removeTop ();
+    }
+
+    return this.docid;
+  }
+
+  /**
+   *  Get the position of the current document in the i'th list.
+   *  @param i The index of a list (in constructor order).
+   *  @return The index of the current document in list i, or -1 if
+   *  list i does not contain it.
+   */
+  public int matchedIndex(int i) {
+    return this.matchedIndex[i];
+  }
+
+  /**
+   *  Get the number of lists that contain the current document.
+   *  @return The number of lists.
+   */
+  public int matchedCount() {
+    return this.matchedCount;
+  }
+
+  //  Heap maintenance.
+
+  private void push (int list, int key) {
+
+    int h = this.heapSize++;
+
+    while (h > 0) {
+      int parent = (h - 1) >>> 1;
+
+      if (this.heapDocids[parent] <= key)
+	break;
+
+      this.heap[h] = this.heap[parent];
+      this.heapDocids[h] = this.heapDocids[parent];
+      h = parent;
+    }
+
+    this.heap[h] = list;
+    this.heapDocids[h] = key;
+  }
+
+  private void replaceTop (int key) {
+    siftDown (this.heap[0], key);
+  }
+
+  private void removeTop () {
+
+    this.heapSize --;
+
+    if (this.heapSize > 0)
+      siftDown (this.heap[this.heapSize], this.heapDocids[this.heapSize]);
+  }
+
+  private void siftDown (int list, int key) {
+
+    int h = 0;
+
+    while (true) {
+      int child = 2 * h + 1;
+
+      if (child >= this.heapSize)
+	break;
+
+      if ((child + 1 < this.heapSize) &&
+	  (this.heapDocids[child + 1] < this.heapDocids[child]))
+	child ++;
+
+      if (key <= this.heapDocids[child])
+	break;
+
+      this.heap[h] = this.heap[child];
+      this.heapDocids[h] = this.heapDocids[child];
+      h = child;
+    }
+
+    this.heap[h] = list;
+    this.heapDocids[h] = key;
+  }
+}
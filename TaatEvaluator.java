@@ -0,0 +1,382 @@
+/**
+ *  TaatEvaluator evaluates flat queries term at a time:  instead of
+ *  walking all of the query's inverted lists together, one document at
+ *  a time, it reads one list after another and adds each posting's
+ *  score to the document's accumulator.  For short queries of frequent
+ *  terms this trades the per-document merge of the lists for a simple
+ *  sequential pass over each list.
+ *
+ *  It handles the flat queries whose score is a simple combination of
+ *  their arguments' scores:  #SUM under BM25 (the sum of the arguments'
+ *  weighted scores, as QryopIlSum computes it) and #OR under the ranked
+ *  Boolean models (the largest of the arguments' scores, as QryopSlOR
+ *  computes it), where every argument produces an inverted list (a
+ *  term, or e.g. #NEAR/n of terms).  Without an accumulator limit the
+ *  results are exactly those of document-at-a-time evaluation.
+ *
+ *  The accumulators are a dense array with one entry per document, and
+ *  a bitmap of the documents that have one.  A query borrows a set from
+ *  a shared pool and returns it afterwards, cleared (only the entries
+ *  the query touched are cleared), so they are allocated once, not once
+ *  per query.  The pool is not tied to threads, so it works as well
+ *  when each query runs on a new (e.g., virtual) thread, and it keeps
+ *  at most MAX_POOLED sets, so idle memory does not grow with the
+ *  number of threads.
+ *
+ *  An accumulator limit bounds the number of documents that get
+ *  accumulators, for the classic quit and continue strategies:  the
+ *  arguments are then processed shortest list first, and once the limit
+ *  is reached, "quit" stops, while "continue" still adds the remaining
+ *  lists to the documents that already have accumulators.  Both give
+ *  approximate results.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.index.*;
+
+public class TaatEvaluator {
+
+  /**
+   *  Under the "auto" strategy, only queries with at most this many
+   *  arguments are evaluated term at a time.
+   */
+  public static final int AUTO_MAX_ARGUMENTS = 4;
+
+  /**
+   *  Under the "auto" strategy, only queries whose arguments' postings
+   *  add up to at least numDocs / AUTO_MIN_DENSITY are evaluated term at
+   *  a time; sparser queries leave most of the accumulators unused.
+   */
+  public static final int AUTO_MIN_DENSITY = 8;
+
+  /**
+   *  The largest number of idle sets of accumulators that are kept for
+   *  later queries.  Queries that run at the same time as more than
+   *  this many others allocate their own.
+   */
+  public static final int MAX_POOLED =
+    Runtime.getRuntime().availableProcessors();
+
+  private boolean auto;
+  private int accumulatorLimit;
+  private boolean quit;
+
+  //  The idle accumulators, and how many there are.
+
+  private static final ConcurrentLinkedQueue<Accumulators> pool =
+    new ConcurrentLinkedQueue<Accumulators> ();
+  private static final AtomicInteger pooled = new AtomicInteger ();
+
+  /**
+   *  Constructor.
+   *  @param auto If true, only queries that are likely to be faster term
+   *  at a time are evaluated term at a time (see chooses); otherwise all
+   *  the queries it can evaluate are.
+   *  @param accumulatorLimit The largest number of documents that get
+   *  accumulators, or 0 for no limit.
+   *  @param quit What to do when the limit is reached:  true to stop,
+   *  false to continue adding postings to the existing accumulators.
+   */
+  public TaatEvaluator(boolean auto, int accumulatorLimit, boolean quit) {
+    this.auto = auto;
+    this.accumulatorLimit = accumulatorLimit;
+    this.quit = quit;
+  }
+
+  /**
+   *  Get a description of the evaluator's parameters.
+   *  @return The description.
+   */
+  public String toString() {
+    return "TaatEvaluator(" + (this.auto ? "auto" : "taat") +
+      ", accumulatorLimit=" + this.accumulatorLimit +
+      (this.quit ? ", quit" : ", continue") + ")";
+  }
+
+  /**
+   *  Whether a query can be evaluated term at a time:  a #SUM under
+   *  BM25, or an #OR under ranked Boolean or tf-idf ranked Boolean,
+   *  whose arguments all produce inverted lists.
+   *  @param q The parsed query.
+   *  @param r The retrieval model.
+   *  @return True if it can.
+   */
+  public static boolean supports(Qryop q, RetrievalModel r) {
+
+    boolean sum = (q instanceof QryopIlSum) && (r instanceof RetrievalModelBM25);
+    boolean or = (q instanceof QryopSlOR) &&
+      (r instanceof RetrievalModelRankedBoolean) &&
+      ! (r instanceof RetrievalModelCosineSimilarityRanked);
+
+    if (! (sum || or) || q.args.size () == 0)
+      return false;
+
+    for (int i=0; i<q.args.size(); i++)
+      if (! (postingsOf (q.args.get(i)) instanceof QryopIl))
+	return false;
+
+    return true;
+  }
+
+  /**
+   *  Whether this evaluator should evaluate a query.  With the "auto"
+   *  strategy, a supported query is evaluated term at a time only if it
+   *  is short and its terms are frequent enough that the accumulators
+   *  are well used.
+   *  @param q The parsed query.
+   *  @param r The retrieval model.
+   *  @return True if the query should be evaluated term at a time.
+   *  @throws IOException
+   */
+  public boolean chooses(Qryop q, RetrievalModel r) throws IOException {
+
+    if (! supports (q, r))
+      return false;
+
+    if (! this.auto)
+      return true;
+
+    if (q.args.size () > AUTO_MAX_ARGUMENTS)
+      return false;
+
+    //  Only the lengths of term arguments are known before evaluation.
+
+    long postings = 0;
+
+    for (int i=0; i<q.args.size(); i++) {
+      Qryop arg = postingsOf (q.args.get(i));
+
+      if (arg instanceof QryopIlTerm) {
+	QryopIlTerm term = (QryopIlTerm) arg;
+	postings += QryEval.stats.docFreq (
+	  new Term (term.getField (), term.getTerm ()));
+      }
+    }
+
+    return postings * AUTO_MIN_DENSITY >= QryEval.stats.numDocs ();
+  }
+
+  /**
+   *  Evaluate a query term at a time.  The query must be supported.
+   *  @param q The parsed query.
+   *  @param r The retrieval model.
+   *  @return The result, with the scored documents in docid order.
+   *  @throws IOException
+   */
+  public QryResult evaluate(Qryop q, RetrievalModel r) throws IOException {
+
+    boolean sum = (q instanceof QryopIlSum);
+    int n = q.args.size ();
+
+    //  BM25 weighs each argument by how often it occurs in the query.
+
+    double[] userwgt = sum ?
+      ((QryopIlSum) q).queryTermWeights ((RetrievalModelBM25) r) : null;
+
+    //  Read every argument's postings.  Lists are streamed, so this
+    //  only opens them.
+
+    ScoreIterator[] lists = new ScoreIterator[n];
+    long[] lengths = new long[n];
+
+    for (int i=0; i<n; i++) {
+      Qryop arg = postingsOf (q.args.get(i));
+
+      if (sum) {
+	QryopSlScore scoreOp = new QryopSlScore (arg, arg.weight);
+
+	scoreOp.lazy = true;
+	scoreOp.evaluate (r);
+	lists[i] = scoreOp.scoreIterator (0, ScoreIterator.NO_MORE_DOCS);
+	lengths[i] = scoreOp.postings.df;
+      } else {
+	InvList postings = arg.evaluate (r).invertedList;
+
+	lists[i] = termFrequencies (postings.cursor ());
+	lengths[i] = postings.df;
+      }
+    }
+
+    //  Without a limit the arguments are added in argument order, so
+    //  that each document's score is summed in the same order as
+    //  document-at-a-time evaluation sums it.  With a limit the shortest
+    //  lists, whose terms are the most selective, go first.
+
+    Integer[] order = new Integer[n];
+
+    for (int i=0; i<n; i++)
+      order[i] = i;
+
+    if (this.accumulatorLimit > 0) {
+      final long[] df = lengths;
+
+      Arrays.sort (order, new Comparator<Integer>() {
+	public int compare (Integer a, Integer b) {
+	  return Long.compare (df[a], df[b]);
+	}
+      });
+    }
+
+    Accumulators acc = borrow (QryEval.READER.maxDoc ());
+    int limit = (this.accumulatorLimit > 0) ?
+      this.accumulatorLimit : Integer.MAX_VALUE;
+
+    //  The accumulators are cleared and returned even if a list cannot
+    //  be read, so that the next query starts from empty accumulators.
+
+    QryResult result = new QryResult ();
+
+    try {
+      LISTS:
+      for (int k=0; k<n; k++) {
+	int i = order[k];
+	ScoreIterator list = lists[i];
+
+	while (list.nextDoc () != ScoreIterator.NO_MORE_DOCS) {
+	  int doc = list.docID ();
+
+	  if (! acc.has (doc)) {
+	    if (acc.count >= limit) {
+	      if (this.quit)
+		break LISTS;
+	      continue;
+	    }
+	    acc.touch (doc);
+	  }
+
+	  if (sum)
+	    acc.scores[doc] += list.score () * userwgt[i];
+	  else
+	    acc.scores[doc] = Math.max (acc.scores[doc], list.score ());
+	}
+      }
+    } finally {
+      acc.drain (result.docScores);
+      giveBack (acc);
+    }
+
+    return result;
+  }
+
+  //  The operator that produces an argument's inverted list:  the
+  //  argument itself, or the argument of a #SCORE.
+
+  private static Qryop postingsOf (Qryop arg) {
+    if ((arg instanceof QryopSlScore) && (arg.args.size () == 1))
+      return arg.args.get (0);
+    return arg;
+  }
+
+  //  An iterator whose score is the posting's term frequency, as
+  //  #SCORE scores it under the ranked Boolean models.
+
+  private static ScoreIterator termFrequencies (final InvListCursor postings) {
+    return new ScoreIterator () {
+
+      public int docID () {
+	return postings.docID ();
+      }
+
+      public int nextDoc () throws IOException {
+	return postings.nextDoc ();
+      }
+
+      public int advance (int target) throws IOException {
+	return postings.advance (target);
+      }
+
+      public double score () throws IOException {
+	return (float) postings.freq ();
+      }
+    };
+  }
+
+  /**
+   *  Borrow a set of accumulators from the pool, or allocate one if
+   *  none is idle.  Other evaluators that accumulate scores per
+   *  document (e.g., SaatEvaluator) share the pool.  The accumulators
+   *  must be drained and given back when the query is done.
+   *  @param maxDoc The number of documents they must hold.
+   *  @return The accumulators, all empty.
+   */
+  static Accumulators borrow (int maxDoc) {
+
+    Accumulators acc;
+
+    while ((acc = pool.poll ()) != null) {
+      pooled.decrementAndGet ();
+
+      if (acc.scores.length == maxDoc)
+	return acc;			// Others were for another index.
+    }
+
+    return new Accumulators (maxDoc);
+  }
+
+  /**
+   *  Give drained accumulators back to the pool.  They are dropped if
+   *  the pool is full.
+   *  @param acc The accumulators, all empty.
+   */
+  static void giveBack (Accumulators acc) {
+
+    if (pooled.incrementAndGet () <= MAX_POOLED)
+      pool.offer (acc);
+    else
+      pooled.decrementAndGet ();
+  }
+
+  /**
+   *  A dense array of accumulators and a bitmap of the documents that
+   *  have one.  All scores are 0 and the bitmap is empty between
+   *  queries.
+   */
+  static class Accumulators {
+
+    double[] scores;
+    long[] touched;
+    int count = 0;
+
+    Accumulators (int maxDoc) {
+      this.scores = new double[maxDoc];
+      this.touched = new long[(maxDoc + 63) >>> 6];
+    }
+
+    boolean has (int doc) {
+      return (this.touched[doc >>> 6] & (1L << doc)) != 0;
+    }
+
+    void touch (int doc) {
+      this.touched[doc >>> 6] |= (1L << doc);
+      this.count ++;
+    }
+
+    //  Add the accumulated documents to a score list in docid order, and
+    //  clear them for the next query.
+
+    void drain (ScoreList scores) {
+
+      for (int w=0; w<this.touched.length; w++) {
+	long bits = this.touched[w];
+
+	while (bits != 0) {
+	  int doc = (w << 6) + Long.numberOfTrailingZeros (bits);
+
+	  scores.add (doc, this.scores[doc]);
+	  this.scores[doc] = 0.0;
+	  bits &= bits - 1;
+	}
+
+	this.touched[w] = 0;
+      }
+
+      this.count = 0;
+    }
+  }
+}
@@ -10,8 +10,11 @@
  */
 
 import java.io.*;
+import java.util.List;
 
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
@@ -33,9 +36,12 @@ public class TermVector {
    */
   public TermVector(int docId, String fieldName) throws IOException {
 
-    //  Fetch the term vector.
+    //  Fetch the term vector from the segment that holds the document.
 
-    this.luceneTerms = QryEval.READER.getTermVector(docId, fieldName);
+    List<AtomicReaderContext> leaves = QryEval.READER.leaves();
+    AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+
+    this.luceneTerms = leaf.reader().getTermVector(docId - leaf.docBase, fieldName);
 
     //  Allocate space for stems. The 0'th stem indicates a stopword.
 
@@ -152,7 +158,7 @@ public class TermVector {
    * @throws IOException.
    */
   public long totalStemFreq(int i) throws IOException {
-    return QryEval.READER.totalTermFreq(terms[i]);
+    return QryEval.stats.totalTermFreq(terms[i]);
   }
   
   /**
@@ -162,7 +168,7 @@ public class TermVector {
    * @throws IOException.
    */
   public int stemDf(int i) throws IOException {
-    return QryEval.READER.docFreq(terms[i]);
+    return QryEval.stats.docFreq(terms[i]);
   }
   
 }
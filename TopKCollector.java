@@ -0,0 +1,232 @@
+/**
+ *  TopKCollector selects the k best documents of a score list.  It
+ *  keeps a bounded binary min-heap of <score, index> pairs, so a query
+ *  that matches n documents costs O(n log k) instead of a full sort,
+ *  and external document ids (stored field reads) are fetched only for
+ *  the documents that can make the final ranking.
+ *
+ *  Documents are ranked by score; ties are broken by external id,
+ *  exactly as QryEval.scoreSortModified orders them.  Because the
+ *  external id is not known while the heap is built, documents whose
+ *  score equals the lowest score in a full heap are kept aside, and
+ *  their ids are read only to decide which of them survive.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class TopKCollector {
+
+  private int k;
+
+  //  The heap holds score list indexes; heapScores[h] is the score of
+  //  the document at heap[h].  heap[0] has the lowest score.
+
+  private int[] heap;
+  private double[] heapScores;
+  private int heapSize = 0;
+
+  //  Documents that tie with heap[0] but did not fit in the heap.
+
+  private int[] ties = new int[8];
+  private int tieCount = 0;
+
+  /**
+   *  Constructor.
+   *  @param k The number of documents to keep.
+   */
+  public TopKCollector(int k) {
+    this.k = Math.max (k, 0);
+    this.heap = new int[this.k];
+    this.heapScores = new double[this.k];
+  }
+
+  /**
+   *  Offer every document of a score list to the collector.
+   *  @param scores A score list.
+   *  @return void
+   */
+  public void collect(ScoreList scores) {
+    for (int i = 0; i < scores.size(); i++)
+      collect (i, scores.getDocidScore(i));
+  }
+
+  /**
+   *  Offer part of a score list to the collector.
+   *  @param scores A score list.
+   *  @param from The index of the first document to offer.
+   *  @param to The index just past the last document to offer.
+   *  @return void
+   */
+  public void collect(ScoreList scores, int from, int to) {
+    for (int i = from; i < to; i++)
+      collect (i, scores.getDocidScore(i));
+  }
+
+  /**
+   *  Offer the candidates of another collector, which collected a
+   *  different part of the same score list.  The documents that either
+   *  collector could have returned are exactly the ones this collector
+   *  would have kept had it seen both parts, so partial top-k lists
+   *  can be merged without changing the result.
+   *  @param other The other collector.
+   *  @param scores The score list both collectors collected from.
+   *  @return void
+   */
+  public void merge(TopKCollector other, ScoreList scores) {
+
+    for (int h = 0; h < other.heapSize; h++)
+      collect (other.heap[h], other.heapScores[h]);
+
+    for (int t = 0; t < other.tieCount; t++)
+      collect (other.ties[t], scores.getDocidScore(other.ties[t]));
+  }
+
+  /**
+   *  Offer one document to the collector.
+   *  @param index The document's index in its score list.
+   *  @param score The document's score.
+   *  @return void
+   */
+  public void collect(int index, double score) {
+
+    if (this.k == 0)
+      return;
+
+    //  A score that is not a number ranks below every other score.
+
+    if (Double.isNaN (score))
+      score = Double.NEGATIVE_INFINITY;
+
+    if (this.heapSize < this.k) {
+      push (index, score);
+      return;
+    }
+
+    double min = this.heapScores[0];
+
+    if (score < min)
+      return;
+
+    if (score == min) {
+      addTie (index);
+      return;
+    }
+
+    //  The new document displaces the lowest one.  If the lowest score
+    //  went up, the documents tied at the old score are out.
+
+    int displaced = this.heap[0];
+
+    siftDown (index, score);
+
+    if (this.heapScores[0] > min)
+      this.tieCount = 0;
+    else
+      addTie (displaced);
+  }
+
+  /**
+   *  Get the score a document needs to have a chance of entering the
+   *  results.  A document that scores below it cannot; one that scores
+   *  exactly this much may still win a tie.
+   *  @return The lowest score in the heap, or negative infinity if the
+   *  heap is not full yet.
+   */
+  public double threshold() {
+    return (this.k > 0 && this.heapSize == this.k) ?
+      this.heapScores[0] : Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   *  Get the collected documents in rank order.  External ids are read
+   *  only for the documents in the heap and the ties at its boundary.
+   *  @param scores The score list the documents were collected from.
+   *  @return The best k (or fewer) documents, best first.
+   *  @throws IOException
+   */
+  public List<QryEval.scoreArray> results(ScoreList scores)
+    throws IOException {
+
+    //  Put the candidates back in score list order so that documents
+    //  with equal scores and ids keep the order a full sort gave them.
+
+    int[] candidates = Arrays.copyOf (this.heap, this.heapSize + this.tieCount);
+
+    System.arraycopy (this.ties, 0, candidates, this.heapSize, this.tieCount);
+    Arrays.sort (candidates);
+
+    List<QryEval.scoreArray> results =
+      new ArrayList<QryEval.scoreArray>(candidates.length);
+
+    for (int i = 0; i < candidates.length; i++) {
+      int docid = scores.getDocid(candidates[i]);
+
+      results.add (new QryEval.scoreArray (QryEval.getExternalDocid (docid),
+					   docid,
+					   scores.getDocidScore(candidates[i])));
+    }
+
+    Collections.sort (results, new QryEval.scoreSortModified());
+    Collections.reverse (results);
+
+    return (results.size() > this.k) ? results.subList (0, this.k) : results;
+  }
+
+  //  Heap maintenance.
+
+  private void addTie (int index) {
+
+    if (this.tieCount == this.ties.length)
+      this.ties = Arrays.copyOf (this.ties, 2 * this.ties.length);
+
+    this.ties[this.tieCount++] = index;
+  }
+
+  private void push (int index, double score) {
+
+    int h = this.heapSize++;
+
+    while (h > 0) {
+      int parent = (h - 1) >>> 1;
+
+      if (this.heapScores[parent] <= score)
+	break;
+
+      this.heap[h] = this.heap[parent];
+      this.heapScores[h] = this.heapScores[parent];
+      h = parent;
+    }
+
+    this.heap[h] = index;
+    this.heapScores[h] = score;
+  }
+
+  private void siftDown (int index, double score) {
+
+    int h = 0;
+
+    while (true) {
+      int child = 2 * h + 1;
+
+      if (child >= this.heapSize)
+	break;
+
+      if ((child + 1 < this.heapSize) &&
+	  (this.heapScores[child + 1] < this.heapScores[child]))
+	child ++;
+
+      if (score <= this.heapScores[child])
+	break;
+
+      this.heap[h] = this.heap[child];
+      this.heapScores[h] = this.heapScores[child];
+      h = child;
+    }
+
+    this.heap[h] = index;
+    this.heapScores[h] = score;
+  }
+}
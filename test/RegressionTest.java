@@ -0,0 +1,487 @@
+/**
+ *  RegressionTest checks that the engine's evaluation strategies,
+ *  backends, caches and parallelism options agree with a reference
+ *  configuration:  document at a time, exhaustive, from Lucene, on one
+ *  thread, with no caches.  It builds a small index with several
+ *  segments and some deleted documents, runs QryEval on it with the
+ *  reference configuration and then once per option, and compares the
+ *  outputs.  Most options must not change the output at all; the
+ *  exceptions are noted where they are checked.
+ *
+ *  The test only checks that configurations of the current engine
+ *  agree with each other.  It does not compare with the output of
+ *  older versions of the engine.
+ *
+ *  Usage:  java RegressionTest
+ *
+ *  The classes of the search engine and the Lucene jars must be on the
+ *  class path; QryEval runs in a new JVM with the same class path.  The
+ *  test prints one line per check, and exits with status 1 if any check
+ *  fails.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+public class RegressionTest {
+
+  //  The index:  NUM_DOCS documents of words drawn from VOCABULARY, a
+  //  new segment every SEGMENT_DOCS documents, and DELETED removed.
+
+  static final int NUM_DOCS = 1500;
+  static final int SEGMENT_DOCS = 250;
+  static final String[] DELETED = { "doc-00017", "doc-00734", "doc-01302" };
+
+  static final String[] VOCABULARY = (
+    "apple banana cherry grape lemon mango orange peach pear plum " +
+    "river mountain forest ocean desert island valley canyon glacier meadow " +
+    "heart rate pressure blood doctor hospital nurse patient clinic medicine " +
+    "york city london paris tokyo berlin madrid rome vienna prague " +
+    "computer network server client router switch cable signal wireless modem " +
+    "music guitar piano violin drum singer concert album song rhythm").split (" ");
+
+  //  The queries of each kind of retrieval model.  The last query of each
+  //  repeats an earlier one, so that the result cache is used.
+
+  static final String[] BOOLEAN_QUERIES = {
+    "#OR(apple banana)",
+    "#AND(heart rate)",
+    "#AND(apple river)",
+    "#OR(apple cherry grape)",
+    "#AND(apple #NEAR/2(heart rate))",
+    "#OR(#SYN(apple banana) cherry)",
+    "#AND(music #OR(guitar piano))",
+    "#OR(apple.title river.body)",
+    "#OR(york city london paris)",
+    "#OR(apple banana)",
+  };
+
+  static final String[] BM25_QUERIES = {
+    "apple banana",
+    "heart rate",
+    "york city london",
+    "apple.title river.body",
+    "music guitar piano violin",
+    "#SUM(apple cherry grape lemon)",
+    "computer network server",
+    "#SYN(apple banana) cherry",
+    "desert island valley canyon glacier meadow",
+    "heart rate",
+  };
+
+  static final String[] INDRI_QUERIES = {
+    "apple banana",
+    "heart rate",
+    "#AND(apple river)",
+    "#WAND(0.3 apple 0.7 cherry)",
+    "#AND(apple #NEAR/2(heart rate))",
+    "#WSUM(0.4 apple.title 0.6 apple.body)",
+    "#AND(music #WINDOW/8(guitar piano))",
+    "york city london",
+    "#AND(computer #SYN(network server))",
+    "apple banana",
+  };
+
+  //  The lowest acceptable mean overlap of the top SAAT_DEPTH documents
+  //  of score at a time evaluation with the reference's.
+
+  static final int SAAT_DEPTH = 10;
+  static final double SAAT_MIN_OVERLAP = 0.9;
+
+  private File dir;
+  private File indexDir;
+  private int failures = 0;
+
+  /**
+   *  Run the checks.
+   *  @param args Ignored.
+   *  @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+
+    RegressionTest test = new RegressionTest ();
+
+    try {
+      test.run ();
+    } finally {
+      delete (test.dir);
+    }
+
+    if (test.failures > 0) {
+      System.out.println (test.failures + " check(s) failed");
+      System.exit (1);
+    }
+
+    System.out.println ("All checks passed");
+  }
+
+  private void run () throws Exception {
+
+    dir = File.createTempFile ("regression", "");
+    dir.delete ();
+    dir.mkdirs ();
+    indexDir = new File (dir, "index");
+
+    //  Make the files derived from the index before deleting documents,
+    //  so that they are stale; then again after.
+
+    buildIndex ();
+
+    File stalePostings = new File (dir, "stale.postings");
+
+    tool ("PostingsExporter", "postingsPath=" + stalePostings);
+
+    File staleImpacts = new File (dir, "stale.impacts");
+
+    tool ("ImpactIndexBuilder", "impactIndexPath=" + staleImpacts,
+	  "BM25:k_1=1.2", "BM25:b=0.75");
+
+    deleteDocuments ();
+
+    File postings = new File (dir, "postings");
+
+    tool ("PostingsExporter", "postingsPath=" + postings);
+
+    File impacts = new File (dir, "impacts");
+
+    tool ("ImpactIndexBuilder", "impactIndexPath=" + impacts,
+	  "BM25:k_1=1.2", "BM25:b=0.75");
+
+    //  Options that must not change the output of any model.
+
+    String[][] identical = {
+      { "docLengthMmapDir=" + new File (dir, "lengths") },
+      { "threads=4" },
+      { "intraQueryThreads=4" },
+      { "intraQueryThreads=4", "forkJoinThreads=1" },
+      { "docRanges=3" },
+      { "resultCacheSize=100" },
+      { "invListCacheMB=64" },
+      { "evaluationStrategy=taat" },
+      { "evaluationStrategy=auto" },
+      { "postingsPath=" + postings },
+      { "evaluationStrategy=taat", "postingsPath=" + postings, "threads=4" },
+    };
+
+    String[] models = { "unrankedboolean", "rankedboolean",
+			"tfidfrankedboolean", "cosinesimrankedboolean",
+			"bm25", "indri" };
+
+    for (String model : models) {
+      List<String> reference = query (model);
+
+      check (model + " reference has results", ! reference.isEmpty ());
+
+      for (String[] options : identical)
+	check (model + " " + Arrays.toString (options),
+	       reference.equals (query (model, options)));
+
+      if (model.equals ("bm25")) {
+
+	//  MaxScore only skips documents that cannot enter the top
+	//  results, so the output must not change.
+
+	check (model + " [BM25:pruning=maxscore]", reference.equals (
+		 query (model, "BM25:pruning=maxscore")));
+
+	//  Score at a time evaluation uses quantized impacts, so it only
+	//  has to find most of the reference's top documents.
+
+	double overlap = overlap (reference, query (
+	  model, "evaluationStrategy=saat", "impactIndexPath=" + impacts));
+
+	check (model + " [evaluationStrategy=saat] top " + SAAT_DEPTH +
+	       " overlap " + overlap, overlap >= SAAT_MIN_OVERLAP);
+      }
+
+      //  Indri in log space reports log probabilities instead of
+      //  probabilities, so only the rankings are compared.
+
+      if (model.equals ("indri"))
+	check (model + " [Indri:logSpace=true] rankings",
+	       rankings (reference).equals (
+		 rankings (query (model, "Indri:logSpace=true"))));
+    }
+
+    //  Files made from the index before documents were deleted must be
+    //  refused.
+
+    check ("stale postingsPath is refused",
+	   refused ("bm25", "postingsPath=" + stalePostings));
+    check ("stale impactIndexPath is refused",
+	   refused ("bm25", "evaluationStrategy=saat",
+		    "impactIndexPath=" + staleImpacts));
+  }
+
+  private void check (String name, boolean passed) {
+
+    System.out.println ((passed ? "ok    " : "FAIL  ") + name);
+
+    if (! passed)
+      failures ++;
+  }
+
+  //  Build the index the way the course's indexes are built:  KStem,
+  //  stopwords removed, and DocLenStoreSimilarity norms.
+
+  private void buildIndex () throws IOException {
+
+    EnglishAnalyzerConfigurable analyzer =
+      new EnglishAnalyzerConfigurable (Version.LUCENE_43);
+
+    analyzer.setLowercase (true);
+    analyzer.setStopwordRemoval (true);
+    analyzer.setStemmer (EnglishAnalyzerConfigurable.StemmerType.KSTEM);
+
+    IndexWriterConfig config = new IndexWriterConfig (Version.LUCENE_43,
+						      analyzer);
+
+    config.setSimilarity (new DocLenStoreSimilarity ());
+    config.setMaxBufferedDocs (SEGMENT_DOCS);
+    config.setMergePolicy (NoMergePolicy.COMPOUND_FILES);
+
+    IndexWriter writer = new IndexWriter (FSDirectory.open (indexDir), config);
+    Random random = new Random (42);
+    String[] fields = { "body", "title", "url", "inlink", "keywords" };
+
+    for (int d = 0; d < NUM_DOCS; d++) {
+      Document doc = new Document ();
+
+      doc.add (new StringField ("externalId",
+				String.format ("doc-%05d", (d * 7919) % NUM_DOCS),
+				Field.Store.YES));
+
+      //  Skewed word frequencies, so that some terms are frequent.
+
+      for (String field : fields) {
+	int length = field.equals ("body") ? 20 + random.nextInt (200)
+					   : 1 + random.nextInt (8);
+	StringBuilder text = new StringBuilder ();
+
+	for (int i = 0; i < length; i++) {
+	  int w = (int) (VOCABULARY.length *
+			 Math.pow (random.nextDouble (), 2.5));
+
+	  text.append (VOCABULARY[w]).append (' ');
+	}
+
+	doc.add (new TextField (field, text.toString (), Field.Store.NO));
+      }
+
+      writer.addDocument (doc);
+    }
+
+    writer.close ();
+  }
+
+  private void deleteDocuments () throws IOException {
+
+    IndexWriterConfig config = new IndexWriterConfig (
+      Version.LUCENE_43, new EnglishAnalyzerConfigurable (Version.LUCENE_43));
+
+    config.setMergePolicy (NoMergePolicy.COMPOUND_FILES);
+
+    IndexWriter writer = new IndexWriter (FSDirectory.open (indexDir), config);
+
+    for (String externalId : DELETED)
+      writer.deleteDocuments (new Term ("externalId", externalId));
+
+    writer.close ();
+  }
+
+  //  Run QryEval with the reference parameters and some options, and
+  //  get the lines of its trec_eval output.
+
+  private List<String> query (String model, String... options)
+    throws Exception {
+
+    String[] queries = model.equals ("bm25") ? BM25_QUERIES :
+		       model.equals ("indri") ? INDRI_QUERIES : BOOLEAN_QUERIES;
+    File queryFile = new File (dir, model + ".qry");
+    File output = new File (dir, model + ".teIn");
+
+    if (! queryFile.exists ()) {
+      PrintWriter out = new PrintWriter (queryFile, "UTF-8");
+
+      for (int q = 0; q < queries.length; q++)
+	out.println ((q + 1) + ":" + queries[q]);
+
+      out.close ();
+    }
+
+    output.delete ();
+
+    List<String> params = new ArrayList<String> (Arrays.asList (
+      "queryFilePath=" + queryFile,
+      "trecEvalOutputPath=" + output,
+      "retrievalAlgorithm=" + model,
+      "BM25:k_1=1.2", "BM25:b=0.75", "BM25:k_3=0",
+      "BM25:pruning=exhaustive",
+      "Indri:mu=2000", "Indri:lambda=0.4",
+      "invListCacheMB=0", "resultCacheSize=0"));
+
+    //  A later parameter overrides an earlier one.
+
+    params.addAll (Arrays.asList (options));
+
+    Process process = run ("QryEval", params);
+    String log = read (process.getInputStream ());
+
+    if (process.waitFor () != 0 || ! output.exists ()) {
+      System.out.println (log);
+      return Collections.emptyList ();
+    }
+
+    BufferedReader in = new BufferedReader (new FileReader (output));
+    List<String> lines = new ArrayList<String> ();
+    String line;
+
+    while ((line = in.readLine ()) != null)
+      lines.add (line);
+
+    in.close ();
+    return lines;
+  }
+
+  //  Whether QryEval refuses to run with these options.
+
+  private boolean refused (String model, String... options) throws Exception {
+
+    List<String> params = new ArrayList<String> ();
+
+    params.add ("retrievalAlgorithm=" + model);
+    params.add ("BM25:k_1=1.2");
+    params.add ("BM25:b=0.75");
+    params.addAll (Arrays.asList (options));
+
+    Process process = run ("QryEval", params);
+    String log = read (process.getInputStream ());
+
+    return process.waitFor () != 0 && log.contains ("was not");
+  }
+
+  private void tool (String main, String... options) throws Exception {
+
+    Process process = run (main, Arrays.asList (options));
+    String log = read (process.getInputStream ());
+
+    if (process.waitFor () != 0)
+      throw new IOException (main + " failed:\n" + log);
+  }
+
+  //  Start a class's main method in a new JVM, with a parameter file
+  //  that holds indexPath and the parameters.
+
+  private Process run (String main, List<String> params) throws IOException {
+
+    File paramFile = File.createTempFile ("param", ".txt", dir);
+    PrintWriter out = new PrintWriter (paramFile, "UTF-8");
+
+    out.println ("indexPath=" + indexDir);
+
+    for (String param : params)
+      out.println (param);
+
+    out.close ();
+
+    String java = System.getProperty ("java.home") + File.separator + "bin" +
+      File.separator + "java";
+
+    return new ProcessBuilder (java, "-cp",
+			       System.getProperty ("java.class.path"),
+			       main, paramFile.getPath ())
+      .redirectErrorStream (true).start ();
+  }
+
+  //  The query ids, documents and ranks of trec_eval lines, without
+  //  scores.
+
+  private static List<String> rankings (List<String> lines) {
+
+    List<String> rankings = new ArrayList<String> ();
+
+    for (String line : lines) {
+      String[] fields = line.split (" ");
+
+      rankings.add (fields[0] + " " + fields[2] + " " + fields[3]);
+    }
+
+    return rankings;
+  }
+
+  //  The mean, over queries, of the fraction of the reference's top
+  //  SAAT_DEPTH documents that are in the other ranking's top SAAT_DEPTH.
+
+  private static double overlap (List<String> reference, List<String> other) {
+
+    Map<String, Set<String>> expected = top (reference);
+    Map<String, Set<String>> found = top (other);
+    double sum = 0;
+
+    for (Map.Entry<String, Set<String>> query : expected.entrySet ()) {
+      Set<String> docs = new HashSet<String> (query.getValue ());
+
+      if (found.containsKey (query.getKey ()))
+	docs.retainAll (found.get (query.getKey ()));
+      else
+	docs.clear ();
+
+      sum += (double) docs.size () / query.getValue ().size ();
+    }
+
+    return expected.isEmpty () ? 0 : sum / expected.size ();
+  }
+
+  private static Map<String, Set<String>> top (List<String> lines) {
+
+    Map<String, Set<String>> top = new HashMap<String, Set<String>> ();
+
+    for (String line : lines) {
+      String[] fields = line.split (" ");
+
+      if (Integer.parseInt (fields[3]) > SAAT_DEPTH)
+	continue;
+
+      if (! top.containsKey (fields[0]))
+	top.put (fields[0], new HashSet<String> ());
+
+      top.get (fields[0]).add (fields[2]);
+    }
+
+    return top;
+  }
+
+  private static String read (InputStream in) throws IOException {
+
+    BufferedReader reader = new BufferedReader (new InputStreamReader (in));
+    StringBuilder text = new StringBuilder ();
+    String line;
+
+    while ((line = reader.readLine ()) != null)
+      text.append (line).append ('\n');
+
+    reader.close ();
+    return text.toString ();
+  }
+
+  private static void delete (File file) {
+
+    if (file == null)
+      return;
+
+    File[] children = file.listFiles ();
+
+    if (children != null)
+      for (File child : children)
+	delete (child);
+
+    file.delete ();
+  }
+}